@@ -0,0 +1,63 @@
+package com.leo.download.benchmark;
+
+import com.leo.download.DownloadError;
+import com.leo.download.DownloadListenerAdapter;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 测试用的下载监听，统计进度回调次数并等待下载结束
+ */
+public class BenchmarkListener extends DownloadListenerAdapter {
+    /**
+     * 下载超时，秒
+     */
+    private static final long TIMEOUT = 60;
+
+    private CountDownLatch mLatch = new CountDownLatch(1);
+    private volatile DownloadError mError;
+    private AtomicLong mProgressCount = new AtomicLong();
+
+    @Override
+    public void onProgress(int id, long currSize, long totalSize) {
+        mProgressCount.incrementAndGet();
+    }
+
+    @Override
+    public void onComplete(int id, String dir, String name) {
+        mLatch.countDown();
+    }
+
+    @Override
+    public void onError(int id, DownloadError error) {
+        mError = error;
+        mLatch.countDown();
+    }
+
+    /**
+     * 进度回调次数
+     *
+     * @return 次数
+     */
+    public long getProgressCount() {
+        return mProgressCount.get();
+    }
+
+    /**
+     * 等待下载结束，失败或超时时抛出异常使本次测试无效
+     *
+     * @throws IOException          下载失败
+     * @throws InterruptedException 等待被中断
+     */
+    public void await() throws IOException, InterruptedException {
+        if (!mLatch.await(TIMEOUT, TimeUnit.SECONDS)) {
+            throw new IOException("download timeout");
+        }
+        if (mError != null) {
+            throw new IOException("download failed: " + mError);
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.leo.download.benchmark;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 本地文件服务，从内存中返回指定大小的随机数据，支持Range请求，用于排除网络波动对测试的影响
+ */
+public class LocalFileServer {
+    /**
+     * 文件内容
+     */
+    private byte[] mData;
+    /**
+     * HTTP服务
+     */
+    private HttpServer mServer;
+    /**
+     * 处理请求的线程池
+     */
+    private ExecutorService mExecutor;
+
+    /**
+     * 构造方法
+     *
+     * @param size 文件大小
+     */
+    public LocalFileServer(int size) {
+        mData = new byte[size];
+        new Random(size).nextBytes(mData);
+    }
+
+    /**
+     * 启动服务
+     *
+     * @throws IOException 启动失败
+     */
+    public void start() throws IOException {
+        mExecutor = Executors.newCachedThreadPool();
+        mServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        mServer.setExecutor(mExecutor);
+        mServer.createContext("/file", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                serve(exchange);
+            }
+        });
+        mServer.start();
+    }
+
+    /**
+     * 停止服务
+     */
+    public void shutdown() {
+        mServer.stop(0);
+        mExecutor.shutdownNow();
+    }
+
+    /**
+     * 文件地址
+     *
+     * @return 地址
+     */
+    public String getUrl() {
+        return "http://127.0.0.1:" + mServer.getAddress().getPort() + "/file";
+    }
+
+    /**
+     * 文件内容
+     *
+     * @return 内容
+     */
+    public byte[] getData() {
+        return mData;
+    }
+
+    private void serve(HttpExchange exchange) throws IOException {
+        int start = 0;
+        int end = mData.length - 1;
+        int code = 200;
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        if (range != null && range.startsWith("bytes=")) {
+            String[] parts = range.substring("bytes=".length()).split("-");
+            start = Integer.parseInt(parts[0]);
+            if (parts.length > 1 && !parts[1].isEmpty()) {
+                end = Math.min(Integer.parseInt(parts[1]), end);
+            }
+            code = 206;
+            exchange.getResponseHeaders().add("Content-Range", "bytes " + start + "-" + end + "/" + mData.length);
+        }
+        exchange.getResponseHeaders().add("Accept-Ranges", "bytes");
+        exchange.getResponseHeaders().add("ETag", "\"" + mData.length + "\"");
+        exchange.sendResponseHeaders(code, end - start + 1);
+        OutputStream out = exchange.getResponseBody();
+        try {
+            out.write(mData, start, end - start + 1);
+        } finally {
+            out.close();
+        }
+    }
+}
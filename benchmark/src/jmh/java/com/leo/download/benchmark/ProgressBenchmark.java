@@ -0,0 +1,85 @@
+package com.leo.download.benchmark;
+
+import com.leo.download.DownloadConfig;
+import com.leo.download.DownloadExecutors;
+import com.leo.download.DownloadInfo;
+import com.leo.download.DownloadPlatform;
+import com.leo.download.DownloadTask;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.OkHttpClient;
+
+/**
+ * 进度回调的开销：不节流时每次读取都回调，与默认节流对比；
+ * 回调在下载线程中直接执行或切换到单独的线程，对比线程切换的代价
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ProgressBenchmark {
+    private static final int SIZE = 16 * 1024 * 1024;
+
+    @Param({"0", "200"})
+    public long progressInterval;
+
+    @Param({"immediate", "executor"})
+    public String dispatch;
+
+    private LocalFileServer mServer;
+    private ExecutorService mExecutor;
+    private DownloadTask mTask;
+    private File mFile;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        mServer = new LocalFileServer(SIZE);
+        mServer.start();
+        mExecutor = Executors.newSingleThreadExecutor();
+        mTask = new DownloadTask(new OkHttpClient(), DownloadPlatform.get());
+        mTask.setConfig(new DownloadConfig.Builder()
+                .progressInterval(progressInterval)
+                .callbackExecutor("immediate".equals(dispatch) ? DownloadExecutors.immediate() : mExecutor)
+                .build());
+        mFile = File.createTempFile("progress", ".bin");
+    }
+
+    @Setup(Level.Invocation)
+    public void deleteFile() {
+        mFile.delete();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        mTask.shutdown();
+        mServer.shutdown();
+        mExecutor.shutdownNow();
+        mFile.delete();
+    }
+
+    @Benchmark
+    public long download() throws Exception {
+        BenchmarkListener listener = new BenchmarkListener();
+        mTask.start(new DownloadInfo.Builder()
+                .url(mServer.getUrl())
+                .path(mFile.getPath())
+                .build(), listener);
+        listener.await();
+        return listener.getProgressCount();
+    }
+}
@@ -0,0 +1,103 @@
+package com.leo.download.benchmark;
+
+import com.leo.download.DownloadConfig;
+import com.leo.download.DownloadInfo;
+import com.leo.download.DownloadPlatform;
+import com.leo.download.DownloadTask;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.OkHttpClient;
+
+/**
+ * 续传路径的耗时：文件已下载一半，从断点继续。
+ * 需要校验时，进程内没有可继续的摘要，续传前要先读取已下载的部分计算摘要
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ResumeBenchmark {
+    private static final int SIZE = 16 * 1024 * 1024;
+
+    @Param({"none", "SHA-256"})
+    public String checksum;
+
+    private LocalFileServer mServer;
+    private OkHttpClient mClient;
+    private DownloadConfig mConfig;
+    private File mFile;
+    private String mExpected;
+    private DownloadTask mTask;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        mServer = new LocalFileServer(SIZE);
+        mServer.start();
+        mClient = new OkHttpClient();
+        mConfig = new DownloadConfig.Builder().build();
+        mFile = File.createTempFile("resume", ".bin");
+        if (!"none".equals(checksum)) {
+            byte[] digest = java.security.MessageDigest.getInstance(checksum).digest(mServer.getData());
+            StringBuilder builder = new StringBuilder();
+            for (byte b : digest) {
+                builder.append(String.format("%02x", b));
+            }
+            mExpected = builder.toString();
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void writeHalf() throws IOException {
+        FileOutputStream out = new FileOutputStream(mFile);
+        try {
+            out.write(mServer.getData(), 0, SIZE / 2);
+        } finally {
+            out.close();
+        }
+        //每次使用新的任务，不会有上次下载留下的摘要
+        mTask = new DownloadTask(mClient, DownloadPlatform.get());
+        mTask.setConfig(mConfig);
+    }
+
+    @TearDown(Level.Invocation)
+    public void releaseTask() {
+        mTask.shutdown();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        mServer.shutdown();
+        mFile.delete();
+    }
+
+    @Benchmark
+    public long resume() throws Exception {
+        DownloadInfo.Builder builder = new DownloadInfo.Builder()
+                .url(mServer.getUrl())
+                .path(mFile.getPath());
+        if (mExpected != null) {
+            builder.checksum(checksum, mExpected);
+        }
+        DownloadInfo info = builder.build();
+        info.setId(1);
+        info.setCurrSize(SIZE / 2);
+        BenchmarkListener listener = new BenchmarkListener();
+        mTask.start(info, listener);
+        listener.await();
+        return mFile.length();
+    }
+}
@@ -0,0 +1,94 @@
+package com.leo.download.benchmark;
+
+import com.leo.download.DownloadConfig;
+import com.leo.download.DownloadInfo;
+import com.leo.download.DownloadPlatform;
+import com.leo.download.DownloadTask;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.OkHttpClient;
+
+/**
+ * 完整下载的耗时，包括请求、读写循环和进度回调，对比通过FileChannel写入和内存映射写入。
+ * 吞吐量 = size / 平均耗时；gc分析器的gc.alloc.rate.norm除以文件MB数即为每MB的分配量
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class TransferBenchmark {
+    @Param({"1048576", "16777216", "67108864"})
+    public int size;
+
+    @Param({"1", "4"})
+    public int segmentCount;
+
+    @Param({"false", "true"})
+    public boolean mappedWrite;
+
+    private LocalFileServer mServer;
+    private DownloadTask mTask;
+    private File mFile;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        mServer = new LocalFileServer(size);
+        mServer.start();
+        //同一个任务完成后释放该地址，可以在每次调用中重复下载
+        mTask = new DownloadTask(new OkHttpClient(), new AllocatePlatform());
+        mTask.setConfig(new DownloadConfig.Builder()
+                .segmentCount(segmentCount)
+                .minSegmentSize(256 * 1024)
+                .mappedWrite(mappedWrite)
+                .build());
+        mFile = File.createTempFile("transfer", ".bin");
+    }
+
+    @Setup(Level.Invocation)
+    public void deleteFile() {
+        mFile.delete();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        mTask.shutdown();
+        mServer.shutdown();
+        mFile.delete();
+    }
+
+    @Benchmark
+    public long download() throws Exception {
+        BenchmarkListener listener = new BenchmarkListener();
+        mTask.start(new DownloadInfo.Builder()
+                .url(mServer.getUrl())
+                .path(mFile.getPath())
+                .build(), listener);
+        listener.await();
+        return mFile.length();
+    }
+
+    /**
+     * JVM上没有posix_fallocate，用setLength设置文件长度代替预分配，两种写入方式都在预分配的文件上比较
+     */
+    private static class AllocatePlatform extends DownloadPlatform {
+        @Override
+        public boolean allocate(RandomAccessFile file, long length) throws IOException {
+            file.setLength(length);
+            return true;
+        }
+    }
+}
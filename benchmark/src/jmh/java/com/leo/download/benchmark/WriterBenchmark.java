@@ -0,0 +1,76 @@
+package com.leo.download.benchmark;
+
+import com.leo.download.DownloadWriter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import okio.Buffer;
+
+/**
+ * 不经过网络的读写循环：数据从内存中的Okio缓冲区移入写入缓冲区再写入文件，衡量每字节的写入开销，
+ * 对比通过FileChannel写入和内存映射写入
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class WriterBenchmark {
+    private static final int SIZE = 16 * 1024 * 1024;
+
+    @Param({"8192", "65536"})
+    public int bufferSize;
+
+    @Param({"false", "true"})
+    public boolean mappedWrite;
+
+    private byte[] mData;
+    private Buffer mSource;
+    private File mFile;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        mData = new byte[SIZE];
+        new Random(SIZE).nextBytes(mData);
+        mFile = File.createTempFile("writer", ".bin");
+    }
+
+    @Setup(Level.Invocation)
+    public void fillSource() {
+        mSource = new Buffer();
+        mSource.write(mData);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    @Benchmark
+    public long write() throws IOException {
+        DownloadWriter out = new DownloadWriter(mFile.getPath(), 0, bufferSize, 0);
+        try {
+            if (mappedWrite) {
+                out.map(SIZE);
+            }
+            while (out.transferFrom(mSource, bufferSize) != -1) {
+                //读取到缓冲区满时写入文件
+            }
+        } finally {
+            out.close();
+        }
+        return out.getFlushedPosition();
+    }
+}
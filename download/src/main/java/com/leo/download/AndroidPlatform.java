@@ -0,0 +1,141 @@
+package com.leo.download;
+
+import android.os.Build;
+import android.os.Environment;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.StatFs;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.concurrent.Executor;
+
+/**
+ * Android平台适配，通过StatFs检查存储空间，5.0以上通过posix_fallocate预分配空间，默认回调到主线程
+ */
+public class AndroidPlatform extends DownloadPlatform {
+    /**
+     * 内部存储路径
+     */
+    private static final String INTERNAL_DIR = "/data/data/";
+    /**
+     * 主线程执行器
+     */
+    private static volatile Executor sMainThread;
+
+    @Override
+    public long getAvailableSpace(String path) {
+        return path.startsWith(INTERNAL_DIR) ? getAvailableInternalMemorySize()
+                : getAvailableExternalMemorySize();
+    }
+
+    @Override
+    public boolean allocate(RandomAccessFile file, long length) throws IOException {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+            return false;
+        }
+        try {
+            Os.posix_fallocate(file.getFD(), 0, length);
+            return true;
+        } catch (ErrnoException e) {
+            if (e.errno == OsConstants.ENOSPC) {
+                throw new IOException("no space left for " + length + " bytes", e);
+            }
+            //文件系统不支持，例如FAT格式的存储卡
+            return false;
+        }
+    }
+
+    @Override
+    public Executor getCallbackExecutor() {
+        return mainThread();
+    }
+
+    /**
+     * 回调到主线程的执行器
+     *
+     * @return 执行器
+     */
+    public static Executor mainThread() {
+        if (sMainThread == null) {
+            synchronized (AndroidPlatform.class) {
+                if (sMainThread == null) {
+                    final Handler handler = new Handler(Looper.getMainLooper());
+                    sMainThread = new Executor() {
+                        @Override
+                        public void execute(Runnable command) {
+                            handler.post(command);
+                        }
+                    };
+                }
+            }
+        }
+        return sMainThread;
+    }
+
+    @Override
+    public void log(String tag, String message) {
+        //只在调试版本中输出
+        if (BuildConfig.DEBUG) {
+            Log.d(tag, message);
+        }
+    }
+
+    /**
+     * 剩余内部存储空间大小
+     *
+     * @return 空间大小
+     */
+    public static long getAvailableInternalMemorySize() {
+        File path = Environment.getDataDirectory();
+        StatFs stat = new StatFs(path.getPath());
+        long blockSize;
+        long availableBlocks;
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            blockSize = stat.getBlockSize();
+            availableBlocks = stat.getAvailableBlocks();
+        } else {
+            blockSize = stat.getBlockSizeLong();
+            availableBlocks = stat.getAvailableBlocksLong();
+        }
+        return availableBlocks * blockSize;
+    }
+
+    /**
+     * 剩余外部存储空间大小
+     *
+     * @return 空间大小
+     */
+    public static long getAvailableExternalMemorySize() {
+        if (hasSDCard()) {
+            File path = Environment.getExternalStorageDirectory();
+            StatFs stat = new StatFs(path.getPath());
+            long blockSize;
+            long availableBlocks;
+            if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN_MR2) {
+                blockSize = stat.getBlockSize();
+                availableBlocks = stat.getAvailableBlocks();
+            } else {
+                blockSize = stat.getBlockSizeLong();
+                availableBlocks = stat.getAvailableBlocksLong();
+            }
+            return availableBlocks * blockSize;
+        } else {
+            return -1;
+        }
+    }
+
+    /**
+     * 是否装载SD卡
+     *
+     * @return 是否装载
+     */
+    public static boolean hasSDCard() {
+        return Environment.getExternalStorageState().equals(Environment.MEDIA_MOUNTED);
+    }
+}
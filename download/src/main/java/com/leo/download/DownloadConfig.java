@@ -0,0 +1,529 @@
+package com.leo.download;
+
+import java.util.concurrent.Executor;
+
+import okhttp3.OkHttpClient;
+
+/**
+ * 下载全局配置
+ */
+public class DownloadConfig {
+    /**
+     * 默认分段数，1表示单连接下载
+     */
+    public static final int DEFAULT_SEGMENT_COUNT = 1;
+    /**
+     * 每个分段的最小长度，文件过小时不分段
+     */
+    public static final long DEFAULT_MIN_SEGMENT_SIZE = 1024 * 1024;
+    /**
+     * 默认最大并发请求数
+     */
+    public static final int DEFAULT_MAX_REQUESTS = 64;
+    /**
+     * 默认单个主机最大并发请求数
+     */
+    public static final int DEFAULT_MAX_REQUESTS_PER_HOST = 5;
+    /**
+     * 默认连接池最大空闲连接数
+     */
+    public static final int DEFAULT_MAX_IDLE_CONNECTIONS = 5;
+    /**
+     * 默认空闲连接保持时间，毫秒
+     */
+    public static final long DEFAULT_KEEP_ALIVE = 5 * 60 * 1000;
+    /**
+     * 默认超时时间，毫秒
+     */
+    public static final long DEFAULT_TIMEOUT = 10 * 1000;
+    /**
+     * 默认同时下载的最大任务数
+     */
+    public static final int DEFAULT_MAX_CONCURRENT_DOWNLOADS = 3;
+    /**
+     * 默认进度回调最小间隔，毫秒
+     */
+    public static final long DEFAULT_PROGRESS_INTERVAL = 200;
+    /**
+     * 默认写入缓冲区最大值，实际大小根据下载速度调整
+     */
+    public static final int DEFAULT_WRITE_BUFFER_SIZE = 64 * 1024;
+    /**
+     * 默认每写入多少字节同步一次存储
+     */
+    public static final long DEFAULT_SYNC_BYTES = 4 * 1024 * 1024;
+    /**
+     * 默认网络异常时自动重试的次数
+     */
+    public static final int DEFAULT_MAX_RETRIES = 3;
+    /**
+     * 默认第一次重试前的等待时间，毫秒，之后每次翻倍
+     */
+    public static final long DEFAULT_RETRY_DELAY = 1000;
+    /**
+     * 默认重试前的最长等待时间，毫秒
+     */
+    public static final long DEFAULT_MAX_RETRY_DELAY = 30 * 1000;
+    /**
+     * 默认最低速度，字节/秒，一个连接在检测时间内低于该速度时重新连接
+     */
+    public static final long DEFAULT_STALL_BYTES_PER_SECOND = 1024;
+    /**
+     * 默认低速检测时间，毫秒
+     */
+    public static final long DEFAULT_STALL_WINDOW = 30 * 1000;
+
+    /**
+     * 分段数
+     */
+    private int segmentCount;
+    /**
+     * 分段最小长度
+     */
+    private long minSegmentSize;
+    /**
+     * 最大并发请求数
+     */
+    private int maxRequests;
+    /**
+     * 单个主机最大并发请求数
+     */
+    private int maxRequestsPerHost;
+    /**
+     * 连接池最大空闲连接数
+     */
+    private int maxIdleConnections;
+    /**
+     * 空闲连接保持时间，毫秒
+     */
+    private long keepAlive;
+    /**
+     * 连接超时，毫秒
+     */
+    private long connectTimeout;
+    /**
+     * 读超时，毫秒
+     */
+    private long readTimeout;
+    /**
+     * 写超时，毫秒
+     */
+    private long writeTimeout;
+    /**
+     * 使用者提供的OkHttpClient，设置后忽略上面的连接配置
+     */
+    private OkHttpClient client;
+    /**
+     * 同时下载的最大任务数
+     */
+    private int maxConcurrentDownloads;
+    /**
+     * 进度回调最小间隔，毫秒
+     */
+    private long progressInterval;
+    /**
+     * 进度回调最小字节数
+     */
+    private long progressBytes;
+    /**
+     * 写入缓冲区最大值
+     */
+    private int writeBufferSize;
+    /**
+     * 每写入多少字节同步一次存储，0表示只在暂停、完成时同步
+     */
+    private long syncBytes;
+    /**
+     * 全局每秒最多下载的字节数，0表示不限速
+     */
+    private long maxBytesPerSecond;
+    /**
+     * 回调执行器，为空时使用平台的回调方式
+     */
+    private Executor callbackExecutor;
+    /**
+     * 网络异常时自动重试的次数，0表示不重试
+     */
+    private int maxRetries;
+    /**
+     * 第一次重试前的等待时间，毫秒
+     */
+    private long retryDelay;
+    /**
+     * 重试前的最长等待时间，毫秒
+     */
+    private long maxRetryDelay;
+    /**
+     * 最低速度，字节/秒，0表示不检测
+     */
+    private long stallBytesPerSecond;
+    /**
+     * 低速检测时间，毫秒
+     */
+    private long stallWindow;
+    /**
+     * 是否通过内存映射写入文件
+     */
+    private boolean mappedWrite;
+
+    public int getSegmentCount() {
+        return segmentCount;
+    }
+
+    public long getMinSegmentSize() {
+        return minSegmentSize;
+    }
+
+    public int getMaxRequests() {
+        return maxRequests;
+    }
+
+    public int getMaxRequestsPerHost() {
+        return maxRequestsPerHost;
+    }
+
+    public int getMaxIdleConnections() {
+        return maxIdleConnections;
+    }
+
+    public long getKeepAlive() {
+        return keepAlive;
+    }
+
+    public long getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    public long getReadTimeout() {
+        return readTimeout;
+    }
+
+    public long getWriteTimeout() {
+        return writeTimeout;
+    }
+
+    public OkHttpClient getClient() {
+        return client;
+    }
+
+    public int getMaxConcurrentDownloads() {
+        return maxConcurrentDownloads;
+    }
+
+    public long getProgressInterval() {
+        return progressInterval;
+    }
+
+    public long getProgressBytes() {
+        return progressBytes;
+    }
+
+    public int getWriteBufferSize() {
+        return writeBufferSize;
+    }
+
+    public long getSyncBytes() {
+        return syncBytes;
+    }
+
+    public long getMaxBytesPerSecond() {
+        return maxBytesPerSecond;
+    }
+
+    public Executor getCallbackExecutor() {
+        return callbackExecutor;
+    }
+
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    public long getRetryDelay() {
+        return retryDelay;
+    }
+
+    public long getMaxRetryDelay() {
+        return maxRetryDelay;
+    }
+
+    public long getStallBytesPerSecond() {
+        return stallBytesPerSecond;
+    }
+
+    public long getStallWindow() {
+        return stallWindow;
+    }
+
+    public boolean isMappedWrite() {
+        return mappedWrite;
+    }
+
+    public DownloadConfig(Builder builder) {
+        segmentCount = builder.segmentCount;
+        minSegmentSize = builder.minSegmentSize;
+        maxRequests = builder.maxRequests;
+        maxRequestsPerHost = builder.maxRequestsPerHost;
+        maxIdleConnections = builder.maxIdleConnections;
+        keepAlive = builder.keepAlive;
+        connectTimeout = builder.connectTimeout;
+        readTimeout = builder.readTimeout;
+        writeTimeout = builder.writeTimeout;
+        client = builder.client;
+        maxConcurrentDownloads = builder.maxConcurrentDownloads;
+        progressInterval = builder.progressInterval;
+        progressBytes = builder.progressBytes;
+        writeBufferSize = builder.writeBufferSize;
+        syncBytes = builder.syncBytes;
+        maxBytesPerSecond = builder.maxBytesPerSecond;
+        callbackExecutor = builder.callbackExecutor;
+        maxRetries = builder.maxRetries;
+        retryDelay = builder.retryDelay;
+        maxRetryDelay = Math.max(builder.retryDelay, builder.maxRetryDelay);
+        stallBytesPerSecond = builder.stallBytesPerSecond;
+        stallWindow = builder.stallWindow;
+        mappedWrite = builder.mappedWrite;
+    }
+
+    /**
+     * 下载配置Builder
+     */
+    public static class Builder {
+        /**
+         * 分段数
+         */
+        private int segmentCount = DEFAULT_SEGMENT_COUNT;
+        /**
+         * 分段最小长度
+         */
+        private long minSegmentSize = DEFAULT_MIN_SEGMENT_SIZE;
+        /**
+         * 最大并发请求数
+         */
+        private int maxRequests = DEFAULT_MAX_REQUESTS;
+        /**
+         * 单个主机最大并发请求数
+         */
+        private int maxRequestsPerHost = DEFAULT_MAX_REQUESTS_PER_HOST;
+        /**
+         * 连接池最大空闲连接数
+         */
+        private int maxIdleConnections = DEFAULT_MAX_IDLE_CONNECTIONS;
+        /**
+         * 空闲连接保持时间
+         */
+        private long keepAlive = DEFAULT_KEEP_ALIVE;
+        /**
+         * 连接超时
+         */
+        private long connectTimeout = DEFAULT_TIMEOUT;
+        /**
+         * 读超时
+         */
+        private long readTimeout = DEFAULT_TIMEOUT;
+        /**
+         * 写超时
+         */
+        private long writeTimeout = DEFAULT_TIMEOUT;
+        /**
+         * 使用者提供的OkHttpClient
+         */
+        private OkHttpClient client;
+        /**
+         * 同时下载的最大任务数
+         */
+        private int maxConcurrentDownloads = DEFAULT_MAX_CONCURRENT_DOWNLOADS;
+        /**
+         * 进度回调最小间隔
+         */
+        private long progressInterval = DEFAULT_PROGRESS_INTERVAL;
+        /**
+         * 进度回调最小字节数
+         */
+        private long progressBytes;
+        /**
+         * 写入缓冲区大小
+         */
+        private int writeBufferSize = DEFAULT_WRITE_BUFFER_SIZE;
+        /**
+         * 每写入多少字节同步一次存储
+         */
+        private long syncBytes = DEFAULT_SYNC_BYTES;
+        /**
+         * 全局每秒最多下载的字节数
+         */
+        private long maxBytesPerSecond;
+        /**
+         * 回调执行器
+         */
+        private Executor callbackExecutor;
+        /**
+         * 自动重试次数
+         */
+        private int maxRetries = DEFAULT_MAX_RETRIES;
+        /**
+         * 第一次重试前的等待时间
+         */
+        private long retryDelay = DEFAULT_RETRY_DELAY;
+        /**
+         * 重试前的最长等待时间
+         */
+        private long maxRetryDelay = DEFAULT_MAX_RETRY_DELAY;
+        /**
+         * 最低速度
+         */
+        private long stallBytesPerSecond = DEFAULT_STALL_BYTES_PER_SECOND;
+        /**
+         * 低速检测时间
+         */
+        private long stallWindow = DEFAULT_STALL_WINDOW;
+        /**
+         * 是否通过内存映射写入
+         */
+        private boolean mappedWrite;
+
+        public Builder segmentCount(int segmentCount) {
+            this.segmentCount = Math.max(1, segmentCount);
+            return this;
+        }
+
+        public Builder minSegmentSize(long minSegmentSize) {
+            this.minSegmentSize = Math.max(1, minSegmentSize);
+            return this;
+        }
+
+        public Builder maxRequests(int maxRequests) {
+            this.maxRequests = Math.max(1, maxRequests);
+            return this;
+        }
+
+        public Builder maxRequestsPerHost(int maxRequestsPerHost) {
+            this.maxRequestsPerHost = Math.max(1, maxRequestsPerHost);
+            return this;
+        }
+
+        public Builder maxIdleConnections(int maxIdleConnections) {
+            this.maxIdleConnections = Math.max(0, maxIdleConnections);
+            return this;
+        }
+
+        public Builder keepAlive(long keepAlive) {
+            this.keepAlive = Math.max(1, keepAlive);
+            return this;
+        }
+
+        public Builder connectTimeout(long connectTimeout) {
+            this.connectTimeout = Math.max(0, connectTimeout);
+            return this;
+        }
+
+        public Builder readTimeout(long readTimeout) {
+            this.readTimeout = Math.max(0, readTimeout);
+            return this;
+        }
+
+        public Builder writeTimeout(long writeTimeout) {
+            this.writeTimeout = Math.max(0, writeTimeout);
+            return this;
+        }
+
+        public Builder client(OkHttpClient client) {
+            this.client = client;
+            return this;
+        }
+
+        public Builder maxConcurrentDownloads(int maxConcurrentDownloads) {
+            this.maxConcurrentDownloads = Math.max(1, maxConcurrentDownloads);
+            return this;
+        }
+
+        public Builder progressInterval(long progressInterval) {
+            this.progressInterval = Math.max(0, progressInterval);
+            return this;
+        }
+
+        public Builder progressBytes(long progressBytes) {
+            this.progressBytes = Math.max(0, progressBytes);
+            return this;
+        }
+
+        public Builder writeBufferSize(int writeBufferSize) {
+            this.writeBufferSize = Math.max(1, writeBufferSize);
+            return this;
+        }
+
+        public Builder syncBytes(long syncBytes) {
+            this.syncBytes = Math.max(0, syncBytes);
+            return this;
+        }
+
+        public Builder maxBytesPerSecond(long maxBytesPerSecond) {
+            this.maxBytesPerSecond = Math.max(0, maxBytesPerSecond);
+            return this;
+        }
+
+        /**
+         * 设置回调执行器，见{@link DownloadExecutors}，不设置时使用平台的回调方式，Android上回调到主线程
+         *
+         * @param callbackExecutor 回调执行器
+         * @return Builder
+         */
+        public Builder callbackExecutor(Executor callbackExecutor) {
+            this.callbackExecutor = callbackExecutor;
+            return this;
+        }
+
+        /**
+         * 设置网络异常时自动重试的次数，重试从已写入的位置续传，下载有进展后重新计数
+         *
+         * @param maxRetries 重试次数，0表示不重试
+         * @return Builder
+         */
+        public Builder maxRetries(int maxRetries) {
+            this.maxRetries = Math.max(0, maxRetries);
+            return this;
+        }
+
+        /**
+         * 设置重试等待时间，每次重试翻倍并加入随机抖动，不超过最长等待时间
+         *
+         * @param retryDelay    第一次重试前的等待时间，毫秒
+         * @param maxRetryDelay 最长等待时间，毫秒
+         * @return Builder
+         */
+        public Builder retryDelay(long retryDelay, long maxRetryDelay) {
+            this.retryDelay = Math.max(0, retryDelay);
+            this.maxRetryDelay = Math.max(0, maxRetryDelay);
+            return this;
+        }
+
+        /**
+         * 设置低速检测，一个连接在检测时间内的速度低于最低速度时断开，并从已写入的位置重新连接。
+         * 限速等待的时间不计入检测时间
+         *
+         * @param stallBytesPerSecond 最低速度，字节/秒，0表示不检测
+         * @param stallWindow         检测时间，毫秒
+         * @return Builder
+         */
+        public Builder stallDetection(long stallBytesPerSecond, long stallWindow) {
+            this.stallBytesPerSecond = Math.max(0, stallBytesPerSecond);
+            this.stallWindow = Math.max(1, stallWindow);
+            return this;
+        }
+
+        /**
+         * 设置是否通过内存映射写入文件，数据直接复制到映射的文件区域，不再每次写入都调用write，
+         * 适合较大的文件。只在已预分配文件空间时使用，按窗口映射，同步时刷新到存储
+         *
+         * @param mappedWrite 是否使用内存映射
+         * @return Builder
+         */
+        public Builder mappedWrite(boolean mappedWrite) {
+            this.mappedWrite = mappedWrite;
+            return this;
+        }
+
+        public DownloadConfig build() {
+            return new DownloadConfig(this);
+        }
+    }
+}
@@ -32,6 +32,14 @@ public class DownloadConst {
          * IO异常
          */
         public static final int IO_EXCEPTION = 5;
+        /**
+         * 校验失败
+         */
+        public static final int CHECKSUM_MISMATCH = 6;
+        /**
+         * 数据处理失败
+         */
+        public static final int PROCESS_FAILED = 7;
     }
 
     /**
@@ -54,5 +62,45 @@ public class DownloadConst {
          * 失败
          */
         public static final int FAIL = 4;
+        /**
+         * 等待中
+         */
+        public static final int PENDING = 5;
+    }
+
+    /**
+     * 下载优先级常量
+     */
+    public static class Priority{
+        /**
+         * 低
+         */
+        public static final int LOW = 0;
+        /**
+         * 普通
+         */
+        public static final int NORMAL = 1;
+        /**
+         * 高
+         */
+        public static final int HIGH = 2;
+    }
+
+    /**
+     * 校验算法常量
+     */
+    public static class Checksum{
+        /**
+         * MD5
+         */
+        public static final String MD5 = "MD5";
+        /**
+         * SHA-1
+         */
+        public static final String SHA1 = "SHA-1";
+        /**
+         * SHA-256
+         */
+        public static final String SHA256 = "SHA-256";
     }
 }
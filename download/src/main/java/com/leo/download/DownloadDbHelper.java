@@ -3,16 +3,21 @@ package com.leo.download;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * 下载数据库操作
  */
-public class DownloadDbHelper extends SQLiteOpenHelper {
+public class DownloadDbHelper extends SQLiteOpenHelper implements DownloadStore {
     /**
      * 数据库工具实例
      */
@@ -24,24 +29,24 @@ public class DownloadDbHelper extends SQLiteOpenHelper {
     /**
      * 数据库版本
      */
-    private static final int DB_VERSION = 1;
+    private static final int DB_VERSION = 7;
     /**
      * 表名
      */
     private static final String TABLE_NAME = "downloads";
-    public static final String COLUMN_ID = "id";
-    public static final String COLUMN_URL = "url";
-    private static final String COLUMN_DIR = "dir";
-    private static final String COLUMN_NAME = "name";
-    private static final String COLUMN_CURR = "curr_size";
-    private static final String COLUMN_TOTAL = "total_size";
-    private static final String COLUMN_TITLE = "title";
-    private static final String COLUMN_DESC = "desc";
-    private static final String COLUMN_STATUS = "status";
-    private static final String COLUMN_START = "start_time";
-    private static final String COLUMN_FINISH = "finish_time";
-    private static final String COLUMN_RENAME = "rename";
-    private static final String COLUMN_MIMETYPE = "mimetype";
+    /**
+     * 单条查询语句的最大参数数，SQLite默认上限为999
+     */
+    private static final int MAX_QUERY_ARGS = 500;
+    /**
+     * 分段表名
+     */
+    private static final String SEGMENT_TABLE_NAME = "segments";
+    private static final String COLUMN_TASK_ID = "task_id";
+    private static final String COLUMN_INDEX = "idx";
+    private static final String COLUMN_SEGMENT_START = "start_pos";
+    private static final String COLUMN_SEGMENT_END = "end_pos";
+    private static final String COLUMN_SEGMENT_CURR = "curr_pos";
 
     /**
      * 建表SQL
@@ -59,10 +64,71 @@ public class DownloadDbHelper extends SQLiteOpenHelper {
             COLUMN_START + " INTEGER," +
             COLUMN_FINISH + " INTEGER," +
             COLUMN_RENAME + " INTEGER," +
-            COLUMN_MIMETYPE + " TEXT" + ")";
+            COLUMN_MIMETYPE + " TEXT," +
+            COLUMN_PRIORITY + " INTEGER DEFAULT " + DownloadConst.Priority.NORMAL + "," +
+            COLUMN_MAX_SPEED + " INTEGER DEFAULT 0," +
+            COLUMN_CHECKSUM_TYPE + " TEXT," +
+            COLUMN_CHECKSUM + " TEXT," +
+            COLUMN_ETAG + " TEXT," +
+            COLUMN_LAST_MODIFIED + " TEXT" + ")";
+
+    /**
+     * 建分段表SQL
+     */
+    private static final String CREATE_SEGMENTS = "CREATE TABLE " + SEGMENT_TABLE_NAME + "(" +
+            COLUMN_TASK_ID + " INTEGER," +
+            COLUMN_INDEX + " INTEGER," +
+            COLUMN_SEGMENT_START + " INTEGER," +
+            COLUMN_SEGMENT_END + " INTEGER," +
+            COLUMN_SEGMENT_CURR + " INTEGER," +
+            "PRIMARY KEY(" + COLUMN_TASK_ID + "," + COLUMN_INDEX + "))";
+
+    /**
+     * 下载地址唯一索引SQL
+     */
+    private static final String CREATE_URL_INDEX = "CREATE UNIQUE INDEX IF NOT EXISTS idx_" + TABLE_NAME + "_"
+            + COLUMN_URL + " ON " + TABLE_NAME + "(" + COLUMN_URL + ")";
+    /**
+     * 下载状态索引SQL
+     */
+    private static final String CREATE_STATUS_INDEX = "CREATE INDEX IF NOT EXISTS idx_" + TABLE_NAME + "_"
+            + COLUMN_STATUS + " ON " + TABLE_NAME + "(" + COLUMN_STATUS + ")";
+
+    /**
+     * 数据库写线程
+     */
+    private DownloadDbWriter mWriter;
+    /**
+     * 以id为key的任务缓存，与数据库同步写入
+     */
+    private ConcurrentHashMap<Integer, DownloadInfo> mIdCache;
+    /**
+     * 以下载地址为key的任务缓存，与数据库同步写入
+     */
+    private ConcurrentHashMap<String, DownloadInfo> mUrlCache;
+    /**
+     * 以任务id为key的分段缓存，没有分段的任务缓存空列表，与数据库同步写入
+     */
+    private ConcurrentHashMap<Integer, List<DownloadSegment>> mSegmentCache;
 
     private DownloadDbHelper(Context context, String name, SQLiteDatabase.CursorFactory factory, int version) {
         super(context, name, factory, version);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            setWriteAheadLoggingEnabled(true);
+        }
+        mWriter = new DownloadDbWriter(this);
+        mIdCache = new ConcurrentHashMap<>();
+        mUrlCache = new ConcurrentHashMap<>();
+        mSegmentCache = new ConcurrentHashMap<>();
+        mWriter.setDropListener(new DownloadDbWriter.DropListener() {
+            @Override
+            public void onDropped() {
+                //缓存中可能有未写入数据库的修改，清空后从数据库重新读取
+                mIdCache.clear();
+                mUrlCache.clear();
+                mSegmentCache.clear();
+            }
+        });
     }
 
     /**
@@ -82,49 +148,225 @@ public class DownloadDbHelper extends SQLiteOpenHelper {
         return sInstance;
     }
 
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN && !db.isReadOnly()) {
+            db.enableWriteAheadLogging();
+        }
+    }
+
     @Override
     public void onCreate(SQLiteDatabase db) {
         db.execSQL(CREATE);
+        db.execSQL(CREATE_SEGMENTS);
+        db.execSQL(CREATE_URL_INDEX);
+        db.execSQL(CREATE_STATUS_INDEX);
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-
+        if (oldVersion < 2) {
+            db.execSQL(CREATE_SEGMENTS);
+        }
+        if (oldVersion < 3) {
+            db.execSQL("ALTER TABLE " + TABLE_NAME + " ADD COLUMN " + COLUMN_PRIORITY + " INTEGER DEFAULT "
+                    + DownloadConst.Priority.NORMAL);
+        }
+        if (oldVersion < 4) {
+            //同一地址只保留最新的记录，否则无法建立唯一索引
+            db.execSQL("DELETE FROM " + TABLE_NAME + " WHERE " + COLUMN_ID + " NOT IN (SELECT MAX(" + COLUMN_ID
+                    + ") FROM " + TABLE_NAME + " GROUP BY " + COLUMN_URL + ")");
+            db.execSQL("DELETE FROM " + SEGMENT_TABLE_NAME + " WHERE " + COLUMN_TASK_ID + " NOT IN (SELECT "
+                    + COLUMN_ID + " FROM " + TABLE_NAME + ")");
+            db.execSQL(CREATE_URL_INDEX);
+            db.execSQL(CREATE_STATUS_INDEX);
+        }
+        if (oldVersion < 5) {
+            db.execSQL("ALTER TABLE " + TABLE_NAME + " ADD COLUMN " + COLUMN_MAX_SPEED + " INTEGER DEFAULT 0");
+        }
+        if (oldVersion < 6) {
+            db.execSQL("ALTER TABLE " + TABLE_NAME + " ADD COLUMN " + COLUMN_CHECKSUM_TYPE + " TEXT");
+            db.execSQL("ALTER TABLE " + TABLE_NAME + " ADD COLUMN " + COLUMN_CHECKSUM + " TEXT");
+        }
+        if (oldVersion < 7) {
+            db.execSQL("ALTER TABLE " + TABLE_NAME + " ADD COLUMN " + COLUMN_ETAG + " TEXT");
+            db.execSQL("ALTER TABLE " + TABLE_NAME + " ADD COLUMN " + COLUMN_LAST_MODIFIED + " TEXT");
+        }
     }
 
     /**
-     * 查询下载任务
+     * 查询下载任务，按id或下载地址查询时优先从缓存中获取。
+     * 缓存中的对象与下载过程共享，不要在外部修改
      *
      * @param key   字段名
      * @param value 字段值
      * @return 下载任务
      */
+    @Override
     public DownloadInfo queryFirst(String key, String value) {
+        DownloadInfo info = getCached(key, value);
+        if (info != null) {
+            return info;
+        }
+        flush();
         SQLiteDatabase db = getWritableDatabase();
         Cursor cur = db.query(TABLE_NAME, new String[]{"*"}, key + "=?", new String[]{value}, "", "", "");
         if (cur != null) {
             if (cur.moveToFirst()) {
-                DownloadInfo info = convert(cur);
-                cur.close();
-                return info;
+                info = convert(cur);
+            }
+            cur.close();
+        }
+        if (info != null) {
+            DownloadInfo cached = getCached(COLUMN_ID, String.valueOf(info.getId()));
+            if (cached != null) {
+                return cached;
+            }
+            cache(info);
+        }
+        return info;
+    }
+
+    /**
+     * 从缓存中获取任务
+     *
+     * @param key   字段名
+     * @param value 字段值
+     * @return 下载任务，未缓存时返回null
+     */
+    private DownloadInfo getCached(String key, String value) {
+        if (COLUMN_URL.equals(key)) {
+            return mUrlCache.get(value);
+        }
+        if (COLUMN_ID.equals(key)) {
+            try {
+                return mIdCache.get(Integer.valueOf(value));
+            } catch (NumberFormatException e) {
+                return null;
             }
         }
         return null;
     }
 
     /**
-     * 查询所有下载任务
+     * 缓存任务，同一地址的旧任务会被移除
+     *
+     * @param info 下载任务
+     */
+    private void cache(DownloadInfo info) {
+        DownloadInfo old = mUrlCache.put(info.getUrl(), info);
+        if (old != null && old.getId() != info.getId()) {
+            mIdCache.remove(old.getId());
+            mSegmentCache.remove(old.getId());
+        }
+        mIdCache.put(info.getId(), info);
+    }
+
+    /**
+     * 查询满足条件的下载任务
+     *
+     * @param key   字段名
+     * @param value 字段值
+     * @return 任务列表
+     */
+    @Override
+    public List<DownloadInfo> query(String key, String value) {
+        flush();
+        SQLiteDatabase db = getWritableDatabase();
+        Cursor cur = db.query(TABLE_NAME, new String[]{"*"}, key + "=?", new String[]{value}, null, null, null);
+        List<DownloadInfo> infos = new ArrayList<>();
+        if (cur != null) {
+            while (cur.moveToNext()) {
+                infos.add(convertCached(cur));
+            }
+            cur.close();
+        }
+        return infos;
+    }
+
+    /**
+     * 查询所有下载任务，已缓存的任务返回缓存的对象
      *
      * @return 任务列表
      */
+    @Override
     public List<DownloadInfo> queryAll() {
+        flush();
         SQLiteDatabase db = getWritableDatabase();
         Cursor cur = db.query(TABLE_NAME, new String[]{"*"}, null, null, null, null, null);
         List<DownloadInfo> infos = new ArrayList<>();
         if (cur != null) {
             while (cur.moveToNext()) {
-                DownloadInfo info = convert(cur);
-                infos.add(info);
+                infos.add(convertCached(cur));
+            }
+            cur.close();
+        }
+        return infos;
+    }
+
+    /**
+     * 按下载地址批量查询任务，已缓存的任务直接返回，其余按地址分批查询
+     *
+     * @param urls 下载地址列表
+     * @return 下载地址到任务的映射
+     */
+    @Override
+    public Map<String, DownloadInfo> queryByUrls(List<String> urls) {
+        Map<String, DownloadInfo> result = new HashMap<>();
+        List<String> missing = new ArrayList<>();
+        for (String url : urls) {
+            DownloadInfo info = mUrlCache.get(url);
+            if (info != null) {
+                result.put(url, info);
+            } else {
+                missing.add(url);
+            }
+        }
+        if (missing.isEmpty()) {
+            return result;
+        }
+        flush();
+        SQLiteDatabase db = getWritableDatabase();
+        for (int start = 0; start < missing.size(); start += MAX_QUERY_ARGS) {
+            List<String> args = missing.subList(start, Math.min(start + MAX_QUERY_ARGS, missing.size()));
+            StringBuilder selection = new StringBuilder(COLUMN_URL).append(" IN (");
+            for (int i = 0; i < args.size(); i++) {
+                selection.append(i == 0 ? "?" : ",?");
+            }
+            selection.append(")");
+            Cursor cur = db.query(TABLE_NAME, new String[]{"*"}, selection.toString(),
+                    args.toArray(new String[args.size()]), null, null, null);
+            if (cur != null) {
+                while (cur.moveToNext()) {
+                    DownloadInfo info = convert(cur);
+                    DownloadInfo cached = mIdCache.get(info.getId());
+                    if (cached != null) {
+                        info = cached;
+                    } else {
+                        cache(info);
+                    }
+                    result.put(info.getUrl(), info);
+                }
+                cur.close();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 按条件查询下载任务
+     *
+     * @param query 查询条件
+     * @return 任务列表，已缓存的任务返回缓存的对象
+     */
+    @Override
+    public List<DownloadInfo> query(DownloadQuery query) {
+        Cursor cur = openCursor(query);
+        List<DownloadInfo> infos = new ArrayList<>();
+        if (cur != null) {
+            while (cur.moveToNext()) {
+                infos.add(convertCached(cur));
             }
             cur.close();
         }
@@ -132,59 +374,460 @@ public class DownloadDbHelper extends SQLiteOpenHelper {
     }
 
     /**
-     * 插入任务
+     * 按条件统计下载任务数，忽略分页
+     *
+     * @param query 查询条件
+     * @return 任务数
+     */
+    @Override
+    public int count(DownloadQuery query) {
+        flush();
+        List<String> args = new ArrayList<>();
+        String selection = buildSelection(query, args);
+        return (int) DatabaseUtils.queryNumEntries(getWritableDatabase(), TABLE_NAME, selection,
+                args.toArray(new String[args.size()]));
+    }
+
+    /**
+     * 按条件查询下载任务，返回按需读取的列表，访问某一项时才从游标读取。
+     * 列表只能在同一线程中访问，使用后需要关闭
+     *
+     * @param query 查询条件
+     * @return 任务列表
+     */
+    @Override
+    public DownloadRecordList queryLazy(DownloadQuery query) {
+        return new CursorList(openCursor(query));
+    }
+
+    /**
+     * 按查询条件打开游标
+     *
+     * @param query 查询条件
+     * @return 游标
+     */
+    private Cursor openCursor(DownloadQuery query) {
+        flush();
+        List<String> args = new ArrayList<>();
+        String selection = buildSelection(query, args);
+        String[] columns = null;
+        if (query.getColumns() != null && query.getColumns().length > 0) {
+            columns = new String[query.getColumns().length + 1];
+            columns[0] = COLUMN_ID;
+            System.arraycopy(query.getColumns(), 0, columns, 1, query.getColumns().length);
+        }
+        String order = COLUMN_ID + (query.isDescending() ? " DESC" : " ASC");
+        String limit = null;
+        if (query.getLimit() > 0 || query.getOffset() > 0) {
+            limit = query.getOffset() + "," + (query.getLimit() > 0 ? query.getLimit() : -1);
+        }
+        return getWritableDatabase().query(TABLE_NAME, columns, selection,
+                args.toArray(new String[args.size()]), null, null, order, limit);
+    }
+
+    /**
+     * 生成查询条件的where子句
+     *
+     * @param query 查询条件
+     * @param args  参数，生成时填充
+     * @return where子句，没有条件时返回null
+     */
+    private String buildSelection(DownloadQuery query, List<String> args) {
+        StringBuilder selection = new StringBuilder();
+        int[] statuses = query.getStatuses();
+        if (statuses != null && statuses.length > 0) {
+            selection.append(COLUMN_STATUS).append(" IN (");
+            for (int i = 0; i < statuses.length; i++) {
+                selection.append(i == 0 ? "?" : ",?");
+                args.add(String.valueOf(statuses[i]));
+            }
+            selection.append(")");
+        }
+        if (query.getStartTimeFrom() > 0) {
+            appendAnd(selection).append(COLUMN_START).append(">=?");
+            args.add(String.valueOf(query.getStartTimeFrom()));
+        }
+        if (query.getStartTimeTo() > 0) {
+            appendAnd(selection).append(COLUMN_START).append("<?");
+            args.add(String.valueOf(query.getStartTimeTo()));
+        }
+        if (query.getAfterId() > 0) {
+            appendAnd(selection).append(COLUMN_ID).append(query.isDescending() ? "<?" : ">?");
+            args.add(String.valueOf(query.getAfterId()));
+        }
+        return selection.length() > 0 ? selection.toString() : null;
+    }
+
+    private static StringBuilder appendAnd(StringBuilder selection) {
+        return selection.length() > 0 ? selection.append(" AND ") : selection;
+    }
+
+    /**
+     * 读取当前行，任务已缓存时返回缓存的对象
+     *
+     * @param cur 游标
+     * @return 任务信息
+     */
+    private DownloadInfo convertCached(Cursor cur) {
+        DownloadInfo cached = mIdCache.get(getInt(cur, COLUMN_ID));
+        return cached != null ? cached : convert(cur);
+    }
+
+    /**
+     * 游标实现的按需读取列表
+     */
+    private class CursorList extends DownloadRecordList {
+        /**
+         * 游标
+         */
+        private final Cursor mCursor;
+        /**
+         * 记录数
+         */
+        private final int mCount;
+
+        public CursorList(Cursor cursor) {
+            mCursor = cursor;
+            mCount = cursor != null ? cursor.getCount() : 0;
+        }
+
+        @Override
+        public DownloadInfo get(int location) {
+            if (location < 0 || location >= mCount || !mCursor.moveToPosition(location)) {
+                throw new IndexOutOfBoundsException("index " + location + ", size " + mCount);
+            }
+            return convertCached(mCursor);
+        }
+
+        @Override
+        public int size() {
+            return mCount;
+        }
+
+        @Override
+        public void close() {
+            if (mCursor != null) {
+                mCursor.close();
+            }
+        }
+    }
+
+    /**
+     * 插入任务，会先等待排队中的写操作完成。同一下载地址的旧记录及其分段被删除
      *
      * @param info 任务信息
      * @return 主键id
      */
+    @Override
     public int insert(DownloadInfo info) {
+        flush();
         SQLiteDatabase db = getWritableDatabase();
-        int id = (int) db.insert(TABLE_NAME, null, convert(info));
-        info.setId(id);
-        return id;
+        db.beginTransaction();
+        try {
+            replace(db, info);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        cache(info);
+        return info.getId();
     }
 
     /**
-     * 更新
+     * 删除同一下载地址的旧记录和分段后插入任务，并设置新的id。
+     * 直接按唯一索引替换会删除旧行并分配新id，旧id的分段和缓存会失效
      *
+     * @param db   数据库
      * @param info 任务信息
      */
-    public void update(DownloadInfo info) {
+    private void replace(SQLiteDatabase db, DownloadInfo info) {
+        Cursor cur = db.query(TABLE_NAME, new String[]{COLUMN_ID}, COLUMN_URL + "=?",
+                new String[]{info.getUrl()}, null, null, null);
+        if (cur != null) {
+            while (cur.moveToNext()) {
+                int oldId = cur.getInt(0);
+                db.delete(SEGMENT_TABLE_NAME, COLUMN_TASK_ID + "=?", new String[]{String.valueOf(oldId)});
+                evict(oldId);
+            }
+            cur.close();
+        }
+        db.delete(TABLE_NAME, COLUMN_URL + "=?", new String[]{info.getUrl()});
+        info.setId((int) db.insert(TABLE_NAME, null, convert(info)));
+        mSegmentCache.put(info.getId(), new ArrayList<DownloadSegment>());
+    }
+
+    /**
+     * 移除任务及其分段的缓存
+     *
+     * @param id 任务id
+     */
+    private void evict(int id) {
+        DownloadInfo info = mIdCache.remove(id);
+        if (info != null) {
+            mUrlCache.remove(info.getUrl(), info);
+        }
+        mSegmentCache.remove(id);
+    }
+
+    /**
+     * 批量插入任务，会先等待排队中的写操作完成，所有任务在一个事务中提交
+     *
+     * @param infos 任务列表
+     */
+    @Override
+    public void insertAll(List<DownloadInfo> infos) {
+        if (infos.isEmpty()) {
+            return;
+        }
+        flush();
         SQLiteDatabase db = getWritableDatabase();
-        db.update(TABLE_NAME, convert(info), "id=?", new String[]{String.valueOf(info.getId())});
+        db.beginTransaction();
+        try {
+            for (DownloadInfo info : infos) {
+                replace(db, info);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        for (DownloadInfo info : infos) {
+            cache(info);
+        }
+    }
+
+    /**
+     * 更新，在写线程中执行，同一任务未提交的更新会被合并
+     *
+     * @param info 任务信息
+     */
+    @Override
+    public void update(final DownloadInfo info) {
+        cache(info);
+        mWriter.post("info:" + info.getId(), new DownloadDbWriter.Operation() {
+            @Override
+            public void execute(SQLiteDatabase db) {
+                db.update(TABLE_NAME, convert(info), "id=?", new String[]{String.valueOf(info.getId())});
+            }
+        });
     }
 
     /**
-     * 删除
+     * 删除，在写线程中执行
      *
      * @param id 主键
      */
-    public void delete(int id) {
-        SQLiteDatabase db = getWritableDatabase();
-        db.delete(TABLE_NAME, "id=?", new String[]{String.valueOf(id)});
+    @Override
+    public void delete(final int id) {
+        evict(id);
+        mWriter.post(null, new DownloadDbWriter.Operation() {
+            @Override
+            public void execute(SQLiteDatabase db) {
+                db.delete(TABLE_NAME, "id=?", new String[]{String.valueOf(id)});
+            }
+        });
+        deleteSegments(id);
     }
 
     /**
-     * 删除
+     * 删除，在写线程中执行
      *
      * @param url 下载地址
      */
-    public void delete(String url) {
-        SQLiteDatabase db = getWritableDatabase();
-        db.delete(TABLE_NAME, "url=?", new String[]{url});
+    @Override
+    public void delete(final String url) {
+        DownloadInfo info = mUrlCache.remove(url);
+        if (info != null) {
+            evict(info.getId());
+        }
+        mWriter.post(null, new DownloadDbWriter.Operation() {
+            @Override
+            public void execute(SQLiteDatabase db) {
+                db.delete(SEGMENT_TABLE_NAME, COLUMN_TASK_ID + " IN (SELECT " + COLUMN_ID + " FROM " + TABLE_NAME
+                        + " WHERE " + COLUMN_URL + "=?)", new String[]{url});
+                db.delete(TABLE_NAME, "url=?", new String[]{url});
+            }
+        });
     }
 
     /**
-     * 更新任务状态
+     * 更新任务状态，在写线程中执行
      *
      * @param status 状态
      * @param url    下载地址
      */
-    public void updateStatus(int status, String url) {
-        ContentValues values = new ContentValues();
-        values.put("status", status);
+    @Override
+    public void updateStatus(final int status, final String url) {
+        DownloadInfo info = mUrlCache.get(url);
+        if (info != null) {
+            info.setStatus(status);
+        }
+        mWriter.post(null, new DownloadDbWriter.Operation() {
+            @Override
+            public void execute(SQLiteDatabase db) {
+                ContentValues values = new ContentValues();
+                values.put("status", status);
+                db.update(TABLE_NAME, values, "url=?", new String[]{url});
+            }
+        });
+    }
+
+    /**
+     * 等待排队中的写操作全部写入数据库，可在退出前调用
+     *
+     * @return 写操作是否都已写入，有写操作多次提交失败被丢弃后返回false
+     */
+    @Override
+    public boolean flush() {
+        return mWriter.flush();
+    }
+
+    /**
+     * 查询任务的分段信息，已缓存时不访问数据库
+     *
+     * @param id 任务id
+     * @return 分段列表，按序号排列
+     */
+    @Override
+    public List<DownloadSegment> querySegments(int id) {
+        List<DownloadSegment> cached = mSegmentCache.get(id);
+        if (cached != null) {
+            return DownloadSegment.copyCheckpoints(cached);
+        }
+        flush();
+        SQLiteDatabase db = getWritableDatabase();
+        Cursor cur = db.query(SEGMENT_TABLE_NAME, new String[]{"*"}, COLUMN_TASK_ID + "=?",
+                new String[]{String.valueOf(id)}, null, null, COLUMN_INDEX);
+        List<DownloadSegment> segments = new ArrayList<>();
+        if (cur != null) {
+            while (cur.moveToNext()) {
+                segments.add(convertSegment(cur));
+            }
+            cur.close();
+        }
+        mSegmentCache.put(id, DownloadSegment.copyCheckpoints(segments));
+        return segments;
+    }
+
+    /**
+     * 批量查询任务的分段信息，已缓存的直接返回，其余按任务id分批查询
+     *
+     * @param ids 任务id列表
+     * @return 任务id到分段列表的映射，没有分段的任务为空列表
+     */
+    @Override
+    public Map<Integer, List<DownloadSegment>> querySegments(List<Integer> ids) {
+        Map<Integer, List<DownloadSegment>> result = new HashMap<>();
+        List<String> missing = new ArrayList<>();
+        for (Integer id : ids) {
+            List<DownloadSegment> cached = mSegmentCache.get(id);
+            if (cached != null) {
+                result.put(id, DownloadSegment.copyCheckpoints(cached));
+            } else if (!result.containsKey(id)) {
+                result.put(id, new ArrayList<DownloadSegment>());
+                missing.add(String.valueOf(id));
+            }
+        }
+        if (missing.isEmpty()) {
+            return result;
+        }
+        flush();
         SQLiteDatabase db = getWritableDatabase();
-        db.update(TABLE_NAME, values, "url=?", new String[]{url});
+        for (int start = 0; start < missing.size(); start += MAX_QUERY_ARGS) {
+            List<String> args = missing.subList(start, Math.min(start + MAX_QUERY_ARGS, missing.size()));
+            StringBuilder selection = new StringBuilder(COLUMN_TASK_ID).append(" IN (");
+            for (int i = 0; i < args.size(); i++) {
+                selection.append(i == 0 ? "?" : ",?");
+            }
+            selection.append(")");
+            Cursor cur = db.query(SEGMENT_TABLE_NAME, new String[]{"*"}, selection.toString(),
+                    args.toArray(new String[args.size()]), null, null, COLUMN_TASK_ID + "," + COLUMN_INDEX);
+            if (cur != null) {
+                while (cur.moveToNext()) {
+                    result.get(cur.getInt(cur.getColumnIndex(COLUMN_TASK_ID))).add(convertSegment(cur));
+                }
+                cur.close();
+            }
+        }
+        for (String id : missing) {
+            Integer key = Integer.valueOf(id);
+            mSegmentCache.put(key, DownloadSegment.copyCheckpoints(result.get(key)));
+        }
+        return result;
+    }
+
+    /**
+     * 从游标中取出分段信息
+     *
+     * @param cur 数据库查询游标
+     * @return 分段信息
+     */
+    private static DownloadSegment convertSegment(Cursor cur) {
+        DownloadSegment segment = new DownloadSegment();
+        segment.setIndex(cur.getInt(cur.getColumnIndex(COLUMN_INDEX)));
+        segment.setStart(cur.getLong(cur.getColumnIndex(COLUMN_SEGMENT_START)));
+        segment.setEnd(cur.getLong(cur.getColumnIndex(COLUMN_SEGMENT_END)));
+        segment.setCurr(cur.getLong(cur.getColumnIndex(COLUMN_SEGMENT_CURR)));
+        segment.setCheckpoint(segment.getCurr());
+        return segment;
+    }
+
+    /**
+     * 保存任务的分段信息，覆盖原有分段，在写线程中执行。
+     * 分段的写操作都以当前状态覆盖，同一任务未提交的操作只保留最后一次
+     *
+     * @param info 任务信息
+     */
+    @Override
+    public void replaceSegments(final DownloadInfo info) {
+        mSegmentCache.put(info.getId(), DownloadSegment.copyCheckpoints(info.getSegments()));
+        mWriter.post("segments:" + info.getId(), new DownloadDbWriter.Operation() {
+            @Override
+            public void execute(SQLiteDatabase db) {
+                db.delete(SEGMENT_TABLE_NAME, COLUMN_TASK_ID + "=?", new String[]{String.valueOf(info.getId())});
+                List<DownloadSegment> segments = info.getSegments();
+                if (segments == null) {
+                    return;
+                }
+                for (DownloadSegment segment : segments) {
+                    ContentValues values = new ContentValues();
+                    values.put(COLUMN_TASK_ID, info.getId());
+                    values.put(COLUMN_INDEX, segment.getIndex());
+                    values.put(COLUMN_SEGMENT_START, segment.getStart());
+                    values.put(COLUMN_SEGMENT_END, segment.getEnd());
+                    values.put(COLUMN_SEGMENT_CURR, segment.getCheckpoint());
+                    db.insert(SEGMENT_TABLE_NAME, null, values);
+                }
+            }
+        });
+    }
+
+    /**
+     * 更新任务各分段的下载位置，非分段任务忽略
+     *
+     * @param info 任务信息
+     */
+    @Override
+    public void updateSegments(DownloadInfo info) {
+        if (!info.isSegmented()) {
+            return;
+        }
+        replaceSegments(info);
+    }
+
+    /**
+     * 删除任务的分段信息，在写线程中执行
+     *
+     * @param id 任务id
+     */
+    @Override
+    public void deleteSegments(final int id) {
+        mSegmentCache.put(id, new ArrayList<DownloadSegment>());
+        mWriter.post("segments:" + id, new DownloadDbWriter.Operation() {
+            @Override
+            public void execute(SQLiteDatabase db) {
+                db.delete(SEGMENT_TABLE_NAME, COLUMN_TASK_ID + "=?", new String[]{String.valueOf(id)});
+            }
+        });
     }
 
     /**
@@ -207,6 +850,12 @@ public class DownloadDbHelper extends SQLiteOpenHelper {
         values.put(COLUMN_FINISH, info.getFinishTime());
         values.put(COLUMN_RENAME, info.isRename());
         values.put(COLUMN_MIMETYPE, info.getMimetype());
+        values.put(COLUMN_PRIORITY, info.getPriority());
+        values.put(COLUMN_MAX_SPEED, info.getMaxBytesPerSecond());
+        values.put(COLUMN_CHECKSUM_TYPE, info.getChecksumType());
+        values.put(COLUMN_CHECKSUM, info.getChecksum());
+        values.put(COLUMN_ETAG, info.getEtag());
+        values.put(COLUMN_LAST_MODIFIED, info.getLastModified());
         return values;
     }
 
@@ -218,19 +867,43 @@ public class DownloadDbHelper extends SQLiteOpenHelper {
      */
     private DownloadInfo convert(Cursor cur) {
         DownloadInfo info = new DownloadInfo();
-        info.setId(cur.getInt(cur.getColumnIndex(COLUMN_ID)));
-        info.setUrl(cur.getString(cur.getColumnIndex(COLUMN_URL)));
-        info.setDir(cur.getString(cur.getColumnIndex(COLUMN_DIR)));
-        info.setName(cur.getString(cur.getColumnIndex(COLUMN_NAME)));
-        info.setCurrSize(cur.getLong(cur.getColumnIndex(COLUMN_CURR)));
-        info.setTotalSize(cur.getLong(cur.getColumnIndex(COLUMN_TOTAL)));
-        info.setTitle(cur.getString(cur.getColumnIndex(COLUMN_TITLE)));
-        info.setDescription(cur.getString(cur.getColumnIndex(COLUMN_DESC)));
-        info.setStatus(cur.getInt(cur.getColumnIndex(COLUMN_STATUS)));
-        info.setStartTime(cur.getLong(cur.getColumnIndex(COLUMN_START)));
-        info.setFinishTime(cur.getLong(cur.getColumnIndex(COLUMN_FINISH)));
-        info.setRename(cur.getInt(cur.getColumnIndex(COLUMN_RENAME)) == 1);
-        info.setMimetype(cur.getString(cur.getColumnIndex(COLUMN_MIMETYPE)));
+        info.setId(getInt(cur, COLUMN_ID));
+        info.setUrl(getString(cur, COLUMN_URL));
+        info.setDir(getString(cur, COLUMN_DIR));
+        info.setName(getString(cur, COLUMN_NAME));
+        info.setCurrSize(getLong(cur, COLUMN_CURR));
+        info.setTotalSize(getLong(cur, COLUMN_TOTAL));
+        info.setTitle(getString(cur, COLUMN_TITLE));
+        info.setDescription(getString(cur, COLUMN_DESC));
+        info.setStatus(getInt(cur, COLUMN_STATUS));
+        info.setStartTime(getLong(cur, COLUMN_START));
+        info.setFinishTime(getLong(cur, COLUMN_FINISH));
+        info.setRename(getInt(cur, COLUMN_RENAME) == 1);
+        info.setMimetype(getString(cur, COLUMN_MIMETYPE));
+        info.setPriority(getInt(cur, COLUMN_PRIORITY));
+        info.setMaxBytesPerSecond(getLong(cur, COLUMN_MAX_SPEED));
+        info.setChecksumType(getString(cur, COLUMN_CHECKSUM_TYPE));
+        info.setChecksum(getString(cur, COLUMN_CHECKSUM));
+        info.setEtag(getString(cur, COLUMN_ETAG));
+        info.setLastModified(getString(cur, COLUMN_LAST_MODIFIED));
         return info;
     }
+
+    /**
+     * 读取字段，只查询了部分字段时未查询的字段返回默认值
+     */
+    private static String getString(Cursor cur, String column) {
+        int index = cur.getColumnIndex(column);
+        return index >= 0 ? cur.getString(index) : null;
+    }
+
+    private static int getInt(Cursor cur, String column) {
+        int index = cur.getColumnIndex(column);
+        return index >= 0 ? cur.getInt(index) : 0;
+    }
+
+    private static long getLong(Cursor cur, String column) {
+        int index = cur.getColumnIndex(column);
+        return index >= 0 ? cur.getLong(index) : 0;
+    }
 }
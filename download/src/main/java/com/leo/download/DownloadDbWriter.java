@@ -0,0 +1,261 @@
+package com.leo.download;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 数据库写线程，写操作排队后在后台线程中按批次用一个事务提交。
+ * 同一个key的写操作只保留最后一次，用于合并同一任务的多次更新。提交失败的批次会重试，多次失败后丢弃并通知调用方
+ */
+public class DownloadDbWriter implements Runnable {
+    /**
+     * 收到第一个写操作后等待合并的时间，毫秒
+     */
+    private static final long BATCH_DELAY = 100;
+    /**
+     * 一批写操作最多提交的次数，超过后丢弃
+     */
+    private static final int MAX_ATTEMPTS = 3;
+    /**
+     * 提交失败后重试的间隔，毫秒，按失败次数递增
+     */
+    private static final long RETRY_DELAY = 200;
+
+    /**
+     * 写操作
+     */
+    public interface Operation {
+        /**
+         * 执行写操作，在写线程的事务中调用
+         *
+         * @param db 数据库
+         */
+        void execute(SQLiteDatabase db);
+    }
+
+    /**
+     * 写操作被丢弃的监听
+     */
+    public interface DropListener {
+        /**
+         * 一批写操作多次提交失败后被丢弃，在写线程中调用。调用方的缓存可能已与数据库不一致
+         */
+        void onDropped();
+    }
+
+    /**
+     * 数据库
+     */
+    private SQLiteOpenHelper mHelper;
+    /**
+     * 等待提交的写操作，按提交顺序排列
+     */
+    private LinkedHashMap<String, Operation> mPending;
+    /**
+     * 没有key的写操作使用的序号
+     */
+    private long mSequence;
+    /**
+     * 已提交的写操作代数
+     */
+    private long mGeneration;
+    /**
+     * 已写入数据库的代数
+     */
+    private long mCommitted;
+    /**
+     * 是否有线程在等待写入完成
+     */
+    private boolean mFlushRequested;
+    /**
+     * 是否有写操作被丢弃
+     */
+    private boolean mDropped;
+    /**
+     * 写操作被丢弃的监听
+     */
+    private DropListener mDropListener;
+    /**
+     * 写线程
+     */
+    private Thread mThread;
+
+    /**
+     * 构造方法
+     *
+     * @param helper 数据库
+     */
+    public DownloadDbWriter(SQLiteOpenHelper helper) {
+        mHelper = helper;
+        mPending = new LinkedHashMap<>();
+    }
+
+    /**
+     * 提交写操作
+     *
+     * @param key       合并用的key，相同key的旧操作会被替换，为null时不合并
+     * @param operation 写操作
+     */
+    public synchronized void post(String key, Operation operation) {
+        if (key == null) {
+            key = "#" + mSequence++;
+        } else {
+            mPending.remove(key);
+        }
+        mPending.put(key, operation);
+        mGeneration++;
+        if (mThread == null) {
+            mThread = new Thread(this, "DownloadDbWriter");
+            mThread.setDaemon(true);
+            mThread.start();
+        }
+        notifyAll();
+    }
+
+    /**
+     * 设置写操作被丢弃的监听
+     *
+     * @param listener 监听
+     */
+    public void setDropListener(DropListener listener) {
+        mDropListener = listener;
+    }
+
+    /**
+     * 等待之前提交的写操作全部写入数据库
+     *
+     * @return 写操作是否都已写入，有写操作多次提交失败被丢弃后返回false
+     */
+    public synchronized boolean flush() {
+        if (Thread.currentThread() == mThread) {
+            return !mDropped;
+        }
+        long target = mGeneration;
+        boolean interrupted = false;
+        while (mCommitted < target) {
+            mFlushRequested = true;
+            notifyAll();
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        return !mDropped;
+    }
+
+    @Override
+    public void run() {
+        int attempts = 0;
+        while (true) {
+            LinkedHashMap<String, Operation> batch;
+            long generation;
+            synchronized (this) {
+                while (mPending.isEmpty()) {
+                    waitQuietly(0);
+                }
+                if (!mFlushRequested && attempts == 0) {
+                    waitQuietly(BATCH_DELAY);
+                }
+                batch = mPending;
+                mPending = new LinkedHashMap<>();
+                generation = mGeneration;
+            }
+            boolean success = commit(new ArrayList<>(batch.values()));
+            if (!success && ++attempts < MAX_ATTEMPTS) {
+                sleepQuietly(RETRY_DELAY * attempts);
+                requeue(batch);
+                continue;
+            }
+            attempts = 0;
+            if (!success) {
+                Log.e("DownloadDbWriter", "Dropped " + batch.size() + " operations");
+                //先通知调用方清理缓存，再让等待的线程返回
+                DropListener listener = mDropListener;
+                if (listener != null) {
+                    listener.onDropped();
+                }
+            }
+            synchronized (this) {
+                if (!success) {
+                    mDropped = true;
+                }
+                mCommitted = generation;
+                mFlushRequested = false;
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * 将提交失败的写操作放回队首，重试前提交的同key操作更新，保留新的
+     *
+     * @param batch 提交失败的写操作
+     */
+    private synchronized void requeue(LinkedHashMap<String, Operation> batch) {
+        for (Map.Entry<String, Operation> entry : mPending.entrySet()) {
+            batch.remove(entry.getKey());
+            batch.put(entry.getKey(), entry.getValue());
+        }
+        mPending = batch;
+    }
+
+    /**
+     * 等待通知，忽略中断。写线程在进程结束前一直运行，响应中断退出会使排队的写操作不再提交、
+     * flush一直等待，因此不退出
+     *
+     * @param millis 最长等待时间，0表示一直等待
+     */
+    private void waitQuietly(long millis) {
+        try {
+            wait(millis);
+        } catch (InterruptedException ignored) {
+        }
+    }
+
+    /**
+     * 休眠，忽略中断，原因同{@link #waitQuietly(long)}
+     *
+     * @param millis 休眠时间
+     */
+    private static void sleepQuietly(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException ignored) {
+        }
+    }
+
+    /**
+     * 用一个事务写入一批操作，包内可见以便测试中替换
+     *
+     * @param batch 写操作
+     * @return 是否提交成功
+     */
+    boolean commit(List<Operation> batch) {
+        try {
+            SQLiteDatabase db = mHelper.getWritableDatabase();
+            db.beginTransaction();
+            try {
+                for (Operation operation : batch) {
+                    operation.execute(db);
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            return true;
+        } catch (RuntimeException e) {
+            Log.e("DownloadDbWriter", "Commit failed", e);
+            return false;
+        }
+    }
+}
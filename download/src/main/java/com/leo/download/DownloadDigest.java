@@ -0,0 +1,138 @@
+package com.leo.download;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import okio.Buffer;
+
+/**
+ * 文件校验，随写入增量计算摘要，并记录已计算到的位置，续传时可以从该位置继续
+ */
+public class DownloadDigest {
+    /**
+     * 摘要
+     */
+    private MessageDigest mDigest;
+    /**
+     * 将写入的数据更新到摘要的输出流
+     */
+    private OutputStream mOut;
+    /**
+     * 已计算到的位置
+     */
+    private long mPosition;
+
+    /**
+     * 构造方法
+     *
+     * @param algorithm 摘要算法，见{@link DownloadConst.Checksum}
+     * @throws NoSuchAlgorithmException 不支持的算法
+     */
+    public DownloadDigest(String algorithm) throws NoSuchAlgorithmException {
+        mDigest = MessageDigest.getInstance(algorithm);
+        mOut = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                mDigest.update((byte) b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                mDigest.update(b, off, len);
+            }
+        };
+    }
+
+    /**
+     * 已计算到的位置
+     *
+     * @return 位置
+     */
+    public long getPosition() {
+        return mPosition;
+    }
+
+    /**
+     * 将缓冲区开头的数据更新到摘要，不消耗缓冲区
+     *
+     * @param buffer 缓冲区
+     * @param count  字节数
+     * @throws IOException 更新失败
+     */
+    public void update(Buffer buffer, long count) throws IOException {
+        buffer.copyTo(mOut, 0, count);
+        mPosition += count;
+    }
+
+    /**
+     * 读取文件开头的数据更新到摘要，用于没有可继续的摘要时续传
+     *
+     * @param file   文件
+     * @param length 读取长度
+     * @throws IOException 读取失败
+     */
+    public void update(File file, long length) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            byte[] bytes = new byte[8 * 1024];
+            long remaining = length;
+            int len;
+            while (remaining > 0 && (len = in.read(bytes, 0, (int) Math.min(bytes.length, remaining))) != -1) {
+                mDigest.update(bytes, 0, len);
+                remaining -= len;
+            }
+            mPosition += length - remaining;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * 重置摘要，之后需要从文件开头重新计算
+     */
+    public void reset() {
+        mDigest.reset();
+        mPosition = 0;
+    }
+
+    /**
+     * 摘要是否与期望值一致，调用后摘要被重置
+     *
+     * @param expected 期望的十六进制摘要
+     * @return 是否一致
+     */
+    public boolean matches(String expected) {
+        return toHex(mDigest.digest()).equalsIgnoreCase(expected);
+    }
+
+    /**
+     * 计算整个文件的摘要是否与期望值一致
+     *
+     * @param file      文件
+     * @param algorithm 摘要算法
+     * @param expected  期望的十六进制摘要
+     * @return 是否一致
+     * @throws IOException              读取失败
+     * @throws NoSuchAlgorithmException 不支持的算法
+     */
+    public static boolean matches(File file, String algorithm, String expected)
+            throws IOException, NoSuchAlgorithmException {
+        DownloadDigest digest = new DownloadDigest(algorithm);
+        digest.update(file, file.length());
+        return digest.matches(expected);
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder builder = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            builder.append(Character.forDigit((b >> 4) & 0xf, 16));
+            builder.append(Character.forDigit(b & 0xf, 16));
+        }
+        return builder.toString();
+    }
+}
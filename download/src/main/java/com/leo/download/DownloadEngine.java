@@ -0,0 +1,911 @@
+package com.leo.download;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+
+/**
+ * 下载核心，处理续传、调度、监听分发和记录保存，只依赖{@link DownloadStore}和{@link DownloadPlatform}，
+ * 可以在普通JVM上直接使用。Android上通过{@link DownloadManager}使用数据库保存记录
+ */
+public class DownloadEngine {
+    private static final String TAG = "Download";
+    /**
+     * 下载记录存储
+     */
+    private DownloadStore mStore;
+    /**
+     * 平台适配
+     */
+    private DownloadPlatform mPlatform;
+    /**
+     * 下载任务
+     */
+    private DownloadTask mTask;
+    /**
+     * 下载配置
+     */
+    private DownloadConfig mConfig;
+    /**
+     * 所有任务共享的OkHttpClient，复用连接池和线程池
+     */
+    private OkHttpClient mClient;
+    /**
+     * 下载调度
+     */
+    private DownloadScheduler mScheduler;
+    /**
+     * 进行中的任务的监听包装，每个任务只有一个，按任务id保存
+     */
+    private ConcurrentHashMap<Integer, DownloadListenerWrapper> mWrappers;
+    /**
+     * 按任务id注册的监听
+     */
+    private ConcurrentHashMap<Integer, DownloadListenerGroup> mObservers;
+    /**
+     * 所有任务的监听
+     */
+    private DownloadListenerGroup mGlobalListeners;
+
+    /**
+     * 构造方法，使用当前平台的适配和默认配置
+     *
+     * @param store 下载记录存储
+     */
+    public DownloadEngine(DownloadStore store) {
+        this(store, DownloadPlatform.get(), new DownloadConfig.Builder().build());
+    }
+
+    /**
+     * 构造方法
+     *
+     * @param store    下载记录存储
+     * @param platform 平台适配
+     * @param config   下载配置
+     */
+    public DownloadEngine(DownloadStore store, DownloadPlatform platform, DownloadConfig config) {
+        mStore = store;
+        mPlatform = platform;
+        mConfig = config;
+        mClient = createClient(mConfig);
+        mTask = new DownloadTask(mClient, platform);
+        mTask.setConfig(mConfig);
+        mTask.setCheckpointListener(new DownloadTask.CheckpointListener() {
+            @Override
+            public void onCheckpoint(DownloadInfo info) {
+                mStore.update(info);
+                mStore.updateSegments(info);
+            }
+        });
+        mWrappers = new ConcurrentHashMap<>();
+        mObservers = new ConcurrentHashMap<>();
+        mGlobalListeners = new DownloadListenerGroup(null);
+        mScheduler = new DownloadScheduler(mConfig.getMaxConcurrentDownloads(), new DownloadScheduler.Starter() {
+            @Override
+            public void start(DownloadInfo info, DownloadListener listener) {
+                mTask.start(info, listener);
+            }
+        });
+    }
+
+    /**
+     * 设置下载配置，对之后开始的任务生效
+     *
+     * @param config 下载配置
+     */
+    public void setConfig(DownloadConfig config) {
+        mConfig = config;
+        mClient = createClient(config);
+        mTask.setClient(mClient);
+        mTask.setConfig(config);
+        mScheduler.setMaxConcurrent(config.getMaxConcurrentDownloads());
+    }
+
+    /**
+     * 根据配置创建OkHttpClient，配置中提供了client时直接使用
+     *
+     * @param config 下载配置
+     * @return OkHttpClient
+     */
+    private OkHttpClient createClient(DownloadConfig config) {
+        if (config.getClient() != null) {
+            return config.getClient();
+        }
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(config.getMaxRequests());
+        dispatcher.setMaxRequestsPerHost(config.getMaxRequestsPerHost());
+        return new OkHttpClient.Builder()
+                .dispatcher(dispatcher)
+                .connectionPool(new ConnectionPool(config.getMaxIdleConnections(), config.getKeepAlive(),
+                        TimeUnit.MILLISECONDS))
+                .connectTimeout(config.getConnectTimeout(), TimeUnit.MILLISECONDS)
+                .readTimeout(config.getReadTimeout(), TimeUnit.MILLISECONDS)
+                .writeTimeout(config.getWriteTimeout(), TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    /**
+     * 获取所有任务共享的OkHttpClient
+     *
+     * @return OkHttpClient
+     */
+    public OkHttpClient getClient() {
+        return mClient;
+    }
+
+    /**
+     * 获取下载配置
+     *
+     * @return 下载配置
+     */
+    public DownloadConfig getConfig() {
+        return mConfig;
+    }
+
+    /**
+     * 开始续传，会根据下载状态进行判断开始/暂停
+     *
+     * @param info     下载信息
+     * @param listener 下载监听
+     */
+    public void enquene(DownloadInfo info, DownloadListener listener) {
+        if (!isUrlValid(info.getUrl())) {
+            return;
+        }
+        DownloadInfo localInfo = mStore.queryFirst(DownloadStore.COLUMN_URL, info.getUrl());
+        if (localInfo == null) {
+            deleteFile(info.getDir() + File.separator + info.getName());
+            start(info, listener);
+        } else if (resolve(info, localInfo, listener)) {
+            restart(localInfo, listener);
+        }
+    }
+
+    /**
+     * 批量开始续传，每个任务与{@link #enquene(DownloadInfo, DownloadListener)}的处理相同。
+     * 已有记录一次查出，新任务在一个事务中插入，需要开始的任务一起交给调度器
+     *
+     * @param infos    下载信息列表，无效或重复的地址被忽略
+     * @param listener 下载监听，回调中的id区分任务
+     */
+    public void enqueueAll(List<DownloadInfo> infos, DownloadListener listener) {
+        Map<String, DownloadInfo> batch = new LinkedHashMap<>();
+        for (DownloadInfo info : infos) {
+            if (isUrlValid(info.getUrl()) && !batch.containsKey(info.getUrl())) {
+                batch.put(info.getUrl(), info);
+            }
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        Map<String, DownloadInfo> localInfos = mStore.queryByUrls(new ArrayList<>(batch.keySet()));
+        loadSegments(localInfos.values());
+        List<DownloadInfo> inserts = new ArrayList<>();
+        List<DownloadInfo> starts = new ArrayList<>();
+        for (DownloadInfo info : batch.values()) {
+            DownloadInfo localInfo = localInfos.get(info.getUrl());
+            if (localInfo == null) {
+                deleteFile(info.getDir() + File.separator + info.getName());
+                inserts.add(info);
+                starts.add(info);
+            } else if (resolve(info, localInfo, listener)) {
+                starts.add(localInfo);
+            }
+        }
+        mStore.insertAll(inserts);
+        scheduleAll(starts, listener);
+    }
+
+    /**
+     * 根据已有记录的状态处理续传，已完成的直接回调完成，下载中或等待中的暂停
+     *
+     * @param info      本次下载信息
+     * @param localInfo 已有记录
+     * @param listener  下载监听
+     * @return 是否需要开始下载已有记录
+     */
+    private boolean resolve(DownloadInfo info, DownloadInfo localInfo, DownloadListener listener) {
+        if (mTask.getRunningInfo(info.getUrl()) != null) {
+            _pause(info.getUrl(), listener);
+            return false;
+        }
+        if (localInfo.getSegments() == null) {
+            localInfo.setSegments(mStore.querySegments(localInfo.getId()));
+        }
+        if (localInfo.getTotalSize() == 0) {
+            return prepareRestart(info, localInfo);
+        }
+        if (isFileComplete(localInfo)) {
+            getWrapper(localInfo, listener).onComplete(localInfo.getId(),
+                    localInfo.getDir(), localInfo.getName());
+            return false;
+        }
+        switch (localInfo.getStatus()) {
+            case DownloadConst.Status.START:
+                //没有在下载的开始状态来自被结束的进程，按暂停处理
+            case DownloadConst.Status.PAUSE:
+            case DownloadConst.Status.FAIL:
+                return prepareRestart(info, localInfo);
+            case DownloadConst.Status.PENDING:
+                if (mScheduler.isPending(info.getUrl())) {
+                    _pause(info.getUrl(), listener);
+                    return false;
+                }
+                return prepareRestart(info, localInfo);
+            case DownloadConst.Status.FINISH:
+                getWrapper(localInfo, listener).onComplete(localInfo.getId(),
+                        localInfo.getDir(), localInfo.getName());
+                return false;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * 一次查询读取多个记录的分段，正在下载的记录使用下载中的分段，不会被覆盖
+     *
+     * @param infos 已有记录
+     */
+    private void loadSegments(Collection<DownloadInfo> infos) {
+        List<Integer> ids = new ArrayList<>();
+        for (DownloadInfo info : infos) {
+            if (info.getSegments() == null && mTask.getRunningInfo(info.getUrl()) == null) {
+                ids.add(info.getId());
+            }
+        }
+        if (ids.isEmpty()) {
+            return;
+        }
+        Map<Integer, List<DownloadSegment>> segments = mStore.querySegments(ids);
+        for (DownloadInfo info : infos) {
+            if (info.getSegments() == null && segments.containsKey(info.getId())) {
+                info.setSegments(segments.get(info.getId()));
+            }
+        }
+    }
+
+    /**
+     * 将本次下载的分段数、处理器和回调执行器设置到需要重新开始的已有记录，已在下载或等待的记录不受影响
+     *
+     * @param info      本次下载信息
+     * @param localInfo 已有记录
+     * @return 总是返回true，表示需要开始下载已有记录
+     */
+    private boolean prepareRestart(DownloadInfo info, DownloadInfo localInfo) {
+        if (info.getSegmentCount() > 0) {
+            localInfo.setSegmentCount(info.getSegmentCount());
+        }
+        localInfo.setProcessor(info.getProcessor());
+        localInfo.setCallbackExecutor(info.getCallbackExecutor());
+        return true;
+    }
+
+    /**
+     * 开始下载
+     *
+     * @param info     下载信息
+     * @param listener 下载监听
+     */
+    private void start(DownloadInfo info, DownloadListener listener) {
+        mStore.insert(info);
+        schedule(info, listener);
+    }
+
+    /**
+     * 重新开始下载
+     *
+     * @param info     下载信息
+     * @param listener 下载监听
+     */
+    private void restart(DownloadInfo info, DownloadListener listener) {
+        schedule(info, listener);
+    }
+
+    /**
+     * 交给调度器开始下载，达到同时下载上限时记为等待状态。同一地址正在下载时加入正在进行的下载
+     *
+     * @param info     下载信息
+     * @param listener 下载监听
+     */
+    private void schedule(DownloadInfo info, DownloadListener listener) {
+        DownloadListenerWrapper wrapper = getWrapper(info, listener);
+        if (mTask.attach(info.getUrl(), wrapper)) {
+            log("Attach->id:" + info.getId());
+            return;
+        }
+        if (!mScheduler.schedule(info, wrapper)) {
+            log("Pending->id:" + info.getId());
+            info.setStatus(DownloadConst.Status.PENDING);
+            mStore.update(info);
+        }
+    }
+
+    /**
+     * 批量交给调度器，按优先级开始下载，其余记为等待状态。同一地址正在下载时加入正在进行的下载
+     *
+     * @param infos    下载信息列表
+     * @param listener 下载监听
+     */
+    private void scheduleAll(List<DownloadInfo> infos, DownloadListener listener) {
+        List<DownloadInfo> schedules = new ArrayList<>();
+        List<DownloadListenerWrapper> wrappers = new ArrayList<>();
+        for (DownloadInfo info : infos) {
+            DownloadListenerWrapper wrapper = getWrapper(info, listener);
+            if (mTask.attach(info.getUrl(), wrapper)) {
+                log("Attach->id:" + info.getId());
+                continue;
+            }
+            schedules.add(info);
+            wrappers.add(wrapper);
+        }
+        for (DownloadInfo info : mScheduler.scheduleAll(schedules, wrappers)) {
+            log("Pending->id:" + info.getId());
+            info.setStatus(DownloadConst.Status.PENDING);
+            mStore.update(info);
+        }
+    }
+
+    /**
+     * 文件是否已下载完整，分段下载时以各分段的进度为准
+     *
+     * @param info 下载信息
+     * @return 是否完整
+     */
+    private boolean isFileComplete(DownloadInfo info) {
+        if (info.isSegmented()) {
+            for (DownloadSegment segment : info.getSegments()) {
+                if (!segment.isFinished()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        //预分配空间的文件长度即为总大小，还需确认已写入的大小
+        File file = new File(info.getDir() + File.separator + info.getName());
+        return file.length() >= info.getTotalSize() && info.getCurrSize() >= info.getTotalSize();
+    }
+
+    /**
+     * 暂停下载
+     *
+     * @param url      下载地址
+     * @param listener 下载监听
+     */
+    private void _pause(String url, DownloadListener listener) {
+        if (!isUrlValid(url)) {
+            return;
+        }
+        DownloadInfo info = mTask.getRunningInfo(url);
+        if (info == null) {
+            info = mStore.queryFirst(DownloadStore.COLUMN_URL, url);
+            if (info == null) {
+                return;
+            }
+            //没有在下载时以已保存的进度暂停
+            if (info.getSegments() == null) {
+                info.setSegments(mStore.querySegments(info.getId()));
+            }
+        }
+        mScheduler.remove(url);
+        mTask.pause(info, getWrapper(info, listener));
+    }
+
+    /**
+     * 取消下载
+     *
+     * @param url      下载地址
+     * @param listener 下载监听
+     */
+    private void _cancel(String url, DownloadListener listener) {
+        if (!isUrlValid(url)) {
+            return;
+        }
+        DownloadInfo info = mStore.queryFirst(DownloadStore.COLUMN_URL, url);
+        if (info == null) {
+            return;
+        }
+        mScheduler.remove(url);
+        mTask.cancel(url, getWrapper(info, listener));
+    }
+
+    /**
+     * 是否是有效的url
+     *
+     * @param url 要判断的url
+     * @return 是否有效
+     */
+    private static boolean isUrlValid(String url) {
+        return url != null && (url.regionMatches(true, 0, "http://", 0, 7)
+                || url.regionMatches(true, 0, "https://", 0, 8));
+    }
+
+    /**
+     * 获取任务的监听包装，任务进行中时复用同一个包装，本次操作的监听加入其中
+     *
+     * @param info     下载信息
+     * @param listener 本次操作的监听
+     * @return 监听包装
+     */
+    private DownloadListenerWrapper getWrapper(DownloadInfo info, DownloadListener listener) {
+        DownloadListenerWrapper wrapper = mWrappers.get(info.getId());
+        if (wrapper == null) {
+            wrapper = new DownloadListenerWrapper(info);
+            DownloadListenerWrapper old = mWrappers.putIfAbsent(info.getId(), wrapper);
+            if (old != null) {
+                wrapper = old;
+            }
+        }
+        wrapper.add(listener);
+        return wrapper;
+    }
+
+    /**
+     * 下载监听的包装类，每个任务一个。回调中先进行数据库操作，再分发给本次操作的监听、
+     * 按任务id注册的监听和所有任务的监听。任务结束（暂停、完成、取消、失败）后移除本次操作的监听
+     */
+    private class DownloadListenerWrapper implements DownloadListener {
+        private DownloadInfo mDownloadInfo;
+        private volatile DownloadListenerGroup mListeners;
+
+        public DownloadListenerWrapper(DownloadInfo downloadInfo) {
+            mDownloadInfo = downloadInfo;
+            mListeners = new DownloadListenerGroup(null);
+        }
+
+        /**
+         * 添加本次操作的监听
+         *
+         * @param listener 监听
+         */
+        public void add(DownloadListener listener) {
+            mListeners.add(listener);
+        }
+
+        /**
+         * 需要分发的监听
+         *
+         * @return 监听列表
+         */
+        private List<DownloadListener> getTargets() {
+            List<DownloadListener> targets = new ArrayList<>(3);
+            targets.add(mListeners);
+            DownloadListenerGroup observers = mObservers.get(mDownloadInfo.getId());
+            if (observers != null) {
+                targets.add(observers);
+            }
+            targets.add(mGlobalListeners);
+            return targets;
+        }
+
+        /**
+         * 任务结束，移除包装和本次操作的监听，已取出的监听列表仍会收到本次回调
+         */
+        private void finish() {
+            mWrappers.remove(mDownloadInfo.getId(), this);
+            mListeners = new DownloadListenerGroup(null);
+        }
+
+        @Override
+        public void onStart(int id, long size) {
+            log("Start->id:" + mDownloadInfo.getId() + " size:" + size);
+            mDownloadInfo.setStatus(DownloadConst.Status.START);
+            mDownloadInfo.setStartTime(System.currentTimeMillis());
+            mDownloadInfo.setTotalSize(size);
+            mStore.update(mDownloadInfo);
+            mStore.replaceSegments(mDownloadInfo);
+            for (DownloadListener listener : getTargets()) {
+                listener.onStart(mDownloadInfo.getId(), size);
+            }
+        }
+
+        @Override
+        public void onProgress(int id, long currSize, long totalSize) {
+            log("Progress->id:" + mDownloadInfo.getId() + " curr:" + currSize + " total:" + totalSize);
+            for (DownloadListener listener : getTargets()) {
+                listener.onProgress(mDownloadInfo.getId(), currSize, totalSize);
+            }
+        }
+
+        @Override
+        public void onRestart(int id, long currSize, long totalSize) {
+            log("Restart->id:" + mDownloadInfo.getId() + " curr:" + currSize + " total:" + totalSize);
+            mDownloadInfo.setStatus(DownloadConst.Status.START);
+            mDownloadInfo.setCurrSize(currSize);
+            mDownloadInfo.setTotalSize(totalSize);
+            mStore.update(mDownloadInfo);
+            for (DownloadListener listener : getTargets()) {
+                listener.onRestart(mDownloadInfo.getId(), currSize, totalSize);
+            }
+        }
+
+        @Override
+        public void onPause(int id, long currSize) {
+            log("Pause->id:" + mDownloadInfo.getId() + " curr:" + currSize);
+            mDownloadInfo.setStatus(DownloadConst.Status.PAUSE);
+            mDownloadInfo.setCurrSize(currSize);
+            mStore.update(mDownloadInfo);
+            mStore.updateSegments(mDownloadInfo);
+            mScheduler.finish(mDownloadInfo.getUrl());
+            List<DownloadListener> targets = getTargets();
+            finish();
+            for (DownloadListener listener : targets) {
+                listener.onPause(mDownloadInfo.getId(), currSize);
+            }
+        }
+
+        @Override
+        public void onComplete(int id, String dir, String name) {
+            log("Complete->id:" + mDownloadInfo.getId() + " dir:" + dir + " name:" + name);
+            mDownloadInfo.setFinishTime(System.currentTimeMillis());
+            mDownloadInfo.setStatus(DownloadConst.Status.FINISH);
+            mDownloadInfo.setCurrSize(mDownloadInfo.getTotalSize());
+            mStore.update(mDownloadInfo);
+            mStore.deleteSegments(mDownloadInfo.getId());
+            mScheduler.finish(mDownloadInfo.getUrl());
+            List<DownloadListener> targets = getTargets();
+            finish();
+            for (DownloadListener listener : targets) {
+                listener.onComplete(mDownloadInfo.getId(), dir, name);
+            }
+        }
+
+        @Override
+        public void onCancel(int id) {
+            log("Cancel->id:" + mDownloadInfo.getId());
+            mStore.delete(mDownloadInfo.getId());
+            deleteFile(mDownloadInfo.getDir() + File.separator + mDownloadInfo.getName());
+            mScheduler.finish(mDownloadInfo.getUrl());
+            List<DownloadListener> targets = getTargets();
+            finish();
+            for (DownloadListener listener : targets) {
+                listener.onCancel(mDownloadInfo.getId());
+            }
+        }
+
+        @Override
+        public void onError(int id, DownloadError error) {
+            log("Error->id:" + id + " error:" + error.getCode());
+            mDownloadInfo.setStatus(DownloadConst.Status.FAIL);
+            mStore.update(mDownloadInfo);
+            mStore.updateSegments(mDownloadInfo);
+            mScheduler.finish(mDownloadInfo.getUrl());
+            List<DownloadListener> targets = getTargets();
+            finish();
+            for (DownloadListener listener : targets) {
+                listener.onError(mDownloadInfo.getId(), error);
+            }
+        }
+    }
+
+    private void deleteFile(String path) {
+        if (path != null && !path.isEmpty()) {
+            File file = new File(path);
+            if (!file.exists())
+                return;
+            boolean ret = file.delete();
+            if (!ret) {
+                log("Delete file failed");
+            }
+        }
+    }
+
+    private void log(String message) {
+        mPlatform.log(TAG, "-> " + message);
+    }
+
+
+    /**
+     * 开始下载
+     *
+     * @param url      下载地址
+     * @param path     保存地址
+     * @param rename   是否重命名
+     * @param listener 下载监听
+     */
+    public void start(String url, String path, boolean rename, DownloadListener listener) {
+        _cancel(url, listener);//停止
+        deleteFile(path);//删文件
+        DownloadInfo localInfo = mStore.queryFirst(DownloadStore.COLUMN_URL, url);
+        if (localInfo != null) {
+           mStore.delete(url);//删记录
+        }
+        DownloadInfo info = new DownloadInfo.Builder()
+                .url(url)
+                .path(path)
+                .rename(rename)
+                .build();//创建新对象
+        start(info, listener);//下载
+    }
+
+    /**
+     * 开始下载
+     *
+     * @param url      下载地址
+     * @param path     保存地址
+     * @param listener 下载监听
+     */
+    public void start(String url, String path, DownloadListener listener) {
+        start(url, path, false, listener);
+    }
+
+    /**
+     * 开始续传
+     *
+     * @param url      下载地址
+     * @param path     保存地址
+     * @param rename   是否重命名
+     * @param listener 下载监听
+     */
+    public void enquene(String url, String path, boolean rename, DownloadListener listener) {
+        DownloadInfo info = new DownloadInfo.Builder()
+                .url(url)
+                .path(path)
+                .rename(rename)
+                .build();
+        enquene(info, listener);
+    }
+
+    /**
+     * 开始续传
+     *
+     * @param url      下载地址
+     * @param path     保存地址
+     * @param listener 下载监听
+     */
+    public void enquene(String url, String path, DownloadListener listener) {
+        enquene(url, path, false, listener);
+    }
+
+    /**
+     * 暂停下载
+     *
+     * @param url      下载地址
+     * @param listener 下载监听
+     */
+    public void pause(String url, DownloadListener listener) {
+        _pause(url, listener);
+    }
+
+    /**
+     * 取消下载
+     *
+     * @param url      下载地址
+     * @param listener 下载监听
+     */
+    public void cancel(String url, DownloadListener listener) {
+        _cancel(url, listener);
+    }
+
+    /**
+     * 查询下载任务
+     *
+     * @param id 任务id
+     * @return 下载信息
+     */
+    public DownloadInfo query(int id) {
+        return mStore.queryFirst(DownloadStore.COLUMN_ID, String.valueOf(id));
+    }
+
+    /**
+     * 查询下载任务
+     *
+     * @param url 下载地址
+     * @return 下载信息
+     */
+    public DownloadInfo query(String url) {
+        return mStore.queryFirst(DownloadStore.COLUMN_URL, url);
+    }
+
+    /**
+     * 查询所有下载任务，记录较多时使用{@link #query(DownloadQuery)}分页查询或{@link #queryLazy(DownloadQuery)}
+     *
+     * @return 下载任务列表
+     */
+    public List<DownloadInfo> queryAll() {
+        return mStore.queryAll();
+    }
+
+    /**
+     * 按条件查询下载任务，可按状态和开始时间过滤、分页、只查询部分字段
+     *
+     * @param query 查询条件
+     * @return 下载任务列表
+     */
+    public List<DownloadInfo> query(DownloadQuery query) {
+        return mStore.query(query);
+    }
+
+    /**
+     * 按条件统计下载任务数，忽略分页
+     *
+     * @param query 查询条件
+     * @return 任务数
+     */
+    public int count(DownloadQuery query) {
+        return mStore.count(query);
+    }
+
+    /**
+     * 按条件查询下载任务，返回按需读取的列表，适合RecyclerView等只显示部分记录的列表。
+     * 列表只能在同一线程中访问，不再使用时需要关闭
+     *
+     * @param query 查询条件
+     * @return 下载任务列表
+     */
+    public DownloadRecordList queryLazy(DownloadQuery query) {
+        return mStore.queryLazy(query);
+    }
+
+    /**
+     * 删除任务记录
+     *
+     * @param url 下载地址
+     */
+    public void deleteRecord(String url) {
+        mStore.delete(url);
+    }
+
+    /**
+     * 更新任务状态
+     *
+     * @param status 下载状态
+     * @param url    下载地址
+     */
+    public void updateStatus(int status, String url) {
+        mStore.updateStatus(status, url);
+    }
+
+    /**
+     * 继续上次未开始的等待任务，如进程重启后恢复下载队列
+     *
+     * @param listener 下载监听
+     */
+    public void resumePending(DownloadListener listener) {
+        List<DownloadInfo> infos = new ArrayList<>();
+        for (DownloadInfo info : mStore.query(DownloadStore.COLUMN_STATUS,
+                String.valueOf(DownloadConst.Status.PENDING))) {
+            if (!mScheduler.isPending(info.getUrl())) {
+                infos.add(info);
+            }
+        }
+        loadSegments(infos);
+        for (DownloadInfo info : infos) {
+            restart(info, listener);
+        }
+    }
+
+    /**
+     * 添加任务监听，不影响任务的开始和暂停，需要在不再使用时移除
+     *
+     * @param id       任务id
+     * @param listener 下载监听
+     */
+    public void addListener(int id, DownloadListener listener) {
+        synchronized (mObservers) {
+            DownloadListenerGroup observers = mObservers.get(id);
+            if (observers == null) {
+                observers = new DownloadListenerGroup(null);
+                mObservers.put(id, observers);
+            }
+            observers.add(listener);
+        }
+    }
+
+    /**
+     * 移除任务监听
+     *
+     * @param id       任务id
+     * @param listener 下载监听
+     */
+    public void removeListener(int id, DownloadListener listener) {
+        synchronized (mObservers) {
+            DownloadListenerGroup observers = mObservers.get(id);
+            if (observers != null) {
+                observers.remove(listener);
+                if (observers.isEmpty()) {
+                    mObservers.remove(id);
+                }
+            }
+        }
+    }
+
+    /**
+     * 添加所有任务的监听，回调中的id区分任务，需要在不再使用时移除
+     *
+     * @param listener 下载监听
+     */
+    public void addGlobalListener(DownloadListener listener) {
+        mGlobalListeners.add(listener);
+    }
+
+    /**
+     * 移除所有任务的监听
+     *
+     * @param listener 下载监听
+     */
+    public void removeGlobalListener(DownloadListener listener) {
+        mGlobalListeners.remove(listener);
+    }
+
+    /**
+     * 等待所有下载记录写入数据库，可在退出前调用
+     *
+     * @return 记录是否都已保存，有写入失败后被丢弃时返回false
+     */
+    public boolean flush() {
+        return mStore.flush();
+    }
+
+    /**
+     * 修改全局限速，正在下载的任务立即生效，带宽在下载中的任务间平均分配
+     *
+     * @param bytesPerSecond 每秒最多下载的字节数，0表示不限速
+     */
+    public void setMaxBytesPerSecond(long bytesPerSecond) {
+        mTask.setMaxBytesPerSecond(bytesPerSecond);
+    }
+
+    /**
+     * 修改任务限速，正在下载时立即生效
+     *
+     * @param url            下载地址
+     * @param bytesPerSecond 每秒最多下载的字节数，0表示不限速
+     */
+    public void setMaxBytesPerSecond(String url, long bytesPerSecond) {
+        mTask.setMaxBytesPerSecond(url, bytesPerSecond);
+        DownloadInfo info = mStore.queryFirst(DownloadStore.COLUMN_URL, url);
+        if (info != null) {
+            info.setMaxBytesPerSecond(bytesPerSecond);
+            mStore.update(info);
+        }
+    }
+
+    /**
+     * 某个任务最近一次下载的指标快照，包括速度、首字节时间、连接复用、重试和写入字节数
+     *
+     * @param url 下载地址
+     * @return 指标快照，本次运行中没有下载过时返回null
+     */
+    public DownloadMetrics getMetrics(String url) {
+        return mTask.getMetrics(url);
+    }
+
+    /**
+     * 本次运行中所有任务的汇总指标快照
+     *
+     * @return 指标快照
+     */
+    public DownloadMetrics getMetrics() {
+        return mTask.getMetrics();
+    }
+
+    /**
+     * 设置指标接收方，下载中按进度回调的频率推送，下载结束时推送最终的指标
+     *
+     * @param sink 指标接收方，为null时不推送
+     */
+    public void setMetricsSink(DownloadMetricsSink sink) {
+        mTask.setMetricsSink(sink);
+    }
+
+    /**
+     * 任务是否在下载中
+     *
+     * @param url 下载地址
+     * @return 是否在下载中
+     */
+    public boolean isDownloading(String url) {
+        DownloadInfo info = mStore.queryFirst(DownloadStore.COLUMN_URL, url);
+        return info != null && info.getStatus() == DownloadConst.Status.START;
+    }
+
+}
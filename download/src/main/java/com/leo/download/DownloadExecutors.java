@@ -0,0 +1,30 @@
+package com.leo.download;
+
+import java.util.concurrent.Executor;
+
+/**
+ * 常用的回调执行器，Android主线程执行器见{@link AndroidPlatform#mainThread()}
+ */
+public class DownloadExecutors {
+    /**
+     * 在调用线程中直接执行
+     */
+    private static final Executor IMMEDIATE = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private DownloadExecutors() {
+    }
+
+    /**
+     * 在下载线程中直接回调，不切换线程。分段下载时回调可能来自多个线程，监听需要自行保证线程安全
+     *
+     * @return 执行器
+     */
+    public static Executor immediate() {
+        return IMMEDIATE;
+    }
+}
@@ -0,0 +1,202 @@
+package com.leo.download;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 保存在文件中的下载记录，不依赖Android，用于JVM上的{@link DownloadEngine}。
+ * 修改后在后台合并写入，把所有记录写入临时文件再替换原文件，写入过程中进程结束不会损坏已保存的记录，适合记录不多的场景。
+ * 退出前调用{@link #flush()}写入最近的修改
+ */
+public class DownloadFileStore extends DownloadMemoryStore {
+    private static final String TAG = "DownloadFileStore";
+    /**
+     * 第一次修改后等待合并的时间，毫秒
+     */
+    private static final long SAVE_DELAY = 1000;
+    /**
+     * 记录文件
+     */
+    private final File mFile;
+    /**
+     * 保证同一时间只有一次写入
+     */
+    private final Object mSaveLock = new Object();
+    /**
+     * 后台写入的线程池，空闲时不保留线程
+     */
+    private final ScheduledThreadPoolExecutor mSaveExecutor;
+    /**
+     * 写入任务
+     */
+    private final Runnable mSaveTask = new Runnable() {
+        @Override
+        public void run() {
+            save();
+        }
+    };
+    /**
+     * 是否有未写入的修改，在锁内访问
+     */
+    private boolean mDirty;
+    /**
+     * 是否已安排后台写入，在锁内访问
+     */
+    private boolean mSaveScheduled;
+
+    /**
+     * 构造方法，读取已保存的记录
+     *
+     * @param file 记录文件，不存在时创建
+     */
+    public DownloadFileStore(File file) {
+        mFile = file;
+        mSaveExecutor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "DownloadFileStore");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        mSaveExecutor.setKeepAliveTime(60, TimeUnit.SECONDS);
+        mSaveExecutor.allowCoreThreadTimeOut(true);
+        load();
+    }
+
+    @Override
+    protected void onChanged() {
+        mDirty = true;
+        if (!mSaveScheduled) {
+            mSaveScheduled = true;
+            mSaveExecutor.schedule(mSaveTask, SAVE_DELAY, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * 立即写入未保存的修改
+     *
+     * @return 记录是否都已写入文件，写入失败时返回false，之后的修改或flush会再次写入
+     */
+    @Override
+    public boolean flush() {
+        return save();
+    }
+
+    /**
+     * 读取已保存的记录，文件不存在或已损坏时从空记录开始
+     */
+    @SuppressWarnings("unchecked")
+    private void load() {
+        if (!mFile.exists()) {
+            return;
+        }
+        ObjectInputStream in = null;
+        try {
+            in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(mFile)));
+            List<DownloadInfo> infos = (List<DownloadInfo>) in.readObject();
+            Map<Integer, List<DownloadSegment>> segments = (Map<Integer, List<DownloadSegment>>) in.readObject();
+            restore(infos, segments);
+        } catch (IOException | ClassNotFoundException | ClassCastException e) {
+            DownloadPlatform.get().log(TAG, "Load failed: " + e.getMessage());
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    /**
+     * 有未保存的修改时写入所有记录，先写临时文件再替换
+     *
+     * @return 记录是否都已写入文件
+     */
+    private boolean save() {
+        synchronized (mSaveLock) {
+            byte[] data;
+            synchronized (this) {
+                mSaveScheduled = false;
+                if (!mDirty) {
+                    return true;
+                }
+                //在锁内序列化，得到一致的快照
+                try {
+                    data = serialize();
+                } catch (IOException e) {
+                    DownloadPlatform.get().log(TAG, "Save failed: " + e.getMessage());
+                    return false;
+                }
+                mDirty = false;
+            }
+            try {
+                write(data);
+                return true;
+            } catch (IOException e) {
+                DownloadPlatform.get().log(TAG, "Save failed: " + e.getMessage());
+                synchronized (this) {
+                    mDirty = true;
+                }
+                return false;
+            }
+        }
+    }
+
+    /**
+     * 序列化所有记录
+     *
+     * @return 序列化后的数据
+     * @throws IOException 序列化失败
+     */
+    private byte[] serialize() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(snapshotInfos());
+        out.writeObject(snapshotSegments());
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * 写入临时文件后替换记录文件
+     *
+     * @param data 序列化后的记录
+     * @throws IOException 写入失败
+     */
+    private void write(byte[] data) throws IOException {
+        File temp = new File(mFile.getPath() + ".tmp");
+        File dir = mFile.getAbsoluteFile().getParentFile();
+        if (dir != null && !dir.exists() && !dir.mkdirs()) {
+            throw new IOException("Create dir failed: " + dir);
+        }
+        FileOutputStream out = new FileOutputStream(temp);
+        try {
+            out.write(data);
+            out.getFD().sync();
+        } finally {
+            closeQuietly(out);
+        }
+        //Windows上不能直接重命名到已存在的文件
+        if (!temp.renameTo(mFile) && !(mFile.delete() && temp.renameTo(mFile))) {
+            throw new IOException("Rename failed: " + temp);
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
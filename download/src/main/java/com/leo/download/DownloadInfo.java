@@ -1,14 +1,15 @@
 package com.leo.download;
 
-import android.text.TextUtils;
-
 import java.io.Serializable;
 import java.net.URLConnection;
+import java.util.List;
+import java.util.concurrent.Executor;
 
 /**
  * 任务信息
  */
 public class DownloadInfo implements Serializable{
+    private static final long serialVersionUID = 1L;
     /**
      * 任务自增id
      */
@@ -61,6 +62,46 @@ public class DownloadInfo implements Serializable{
      * 下载状态
      */
     private int status;
+    /**
+     * 分段数，0表示使用全局配置
+     */
+    private int segmentCount;
+    /**
+     * 优先级
+     */
+    private int priority = DownloadConst.Priority.NORMAL;
+    /**
+     * 每秒最多下载的字节数，0表示不限速
+     */
+    private long maxBytesPerSecond;
+    /**
+     * 校验算法，见{@link DownloadConst.Checksum}，为空表示不校验
+     */
+    private String checksumType;
+    /**
+     * 期望的十六进制摘要
+     */
+    private String checksum;
+    /**
+     * 服务器返回的ETag，续传时用于校验文件是否变化
+     */
+    private String etag;
+    /**
+     * 服务器返回的Last-Modified，没有ETag时用于校验文件是否变化
+     */
+    private String lastModified;
+    /**
+     * 分段信息，单连接下载时为空
+     */
+    private List<DownloadSegment> segments;
+    /**
+     * 数据处理器，不保存到数据库
+     */
+    private transient DownloadProcessor processor;
+    /**
+     * 回调执行器，为null时使用下载配置中的回调执行器，不保存到数据库
+     */
+    private transient Executor callbackExecutor;
 
     public int getId() {
         return id;
@@ -166,6 +207,104 @@ public class DownloadInfo implements Serializable{
         this.status = status;
     }
 
+    public int getSegmentCount() {
+        return segmentCount;
+    }
+
+    public void setSegmentCount(int segmentCount) {
+        this.segmentCount = segmentCount;
+    }
+
+    public int getPriority() {
+        return priority;
+    }
+
+    public void setPriority(int priority) {
+        this.priority = priority;
+    }
+
+    public long getMaxBytesPerSecond() {
+        return maxBytesPerSecond;
+    }
+
+    public void setMaxBytesPerSecond(long maxBytesPerSecond) {
+        this.maxBytesPerSecond = maxBytesPerSecond;
+    }
+
+    public String getChecksumType() {
+        return checksumType;
+    }
+
+    public void setChecksumType(String checksumType) {
+        this.checksumType = checksumType;
+    }
+
+    public String getChecksum() {
+        return checksum;
+    }
+
+    public void setChecksum(String checksum) {
+        this.checksum = checksum;
+    }
+
+    /**
+     * 是否需要校验
+     *
+     * @return 是否校验
+     */
+    public boolean hasChecksum() {
+        return !isEmpty(checksumType) && !isEmpty(checksum);
+    }
+
+    public String getEtag() {
+        return etag;
+    }
+
+    public void setEtag(String etag) {
+        this.etag = etag;
+    }
+
+    public String getLastModified() {
+        return lastModified;
+    }
+
+    public void setLastModified(String lastModified) {
+        this.lastModified = lastModified;
+    }
+
+    public List<DownloadSegment> getSegments() {
+        return segments;
+    }
+
+    public void setSegments(List<DownloadSegment> segments) {
+        this.segments = segments;
+    }
+
+    public DownloadProcessor getProcessor() {
+        return processor;
+    }
+
+    public void setProcessor(DownloadProcessor processor) {
+        this.processor = processor;
+    }
+
+    public Executor getCallbackExecutor() {
+        return callbackExecutor;
+    }
+
+    public void setCallbackExecutor(Executor callbackExecutor) {
+        this.callbackExecutor = callbackExecutor;
+    }
+
+    /**
+     * 是否为分段下载
+     *
+     * @return 是否分段
+     */
+    public boolean isSegmented() {
+        return segments != null && !segments.isEmpty();
+    }
+
     public DownloadInfo() {
     }
 
@@ -179,11 +318,22 @@ public class DownloadInfo implements Serializable{
         setTitle(builder.title);
         setDescription(builder.description);
         setMimetype(getMimetype(getName()));
+        setSegmentCount(builder.segmentCount);
+        setPriority(builder.priority);
+        setMaxBytesPerSecond(builder.maxBytesPerSecond);
+        setChecksumType(builder.checksumType);
+        setChecksum(builder.checksum);
+        setProcessor(builder.processor);
+        setCallbackExecutor(builder.callbackExecutor);
+    }
+
+    private static boolean isEmpty(String str) {
+        return str == null || str.length() == 0;
     }
 
     private String getMimetype(String name){
         String mimetype = URLConnection.getFileNameMap().getContentTypeFor(name);
-        if(TextUtils.isEmpty(mimetype)){
+        if(isEmpty(mimetype)){
             mimetype = "application/octet-stream";
         }
         return mimetype;
@@ -213,6 +363,34 @@ public class DownloadInfo implements Serializable{
          * 下载描述
          */
         private String description;
+        /**
+         * 分段数
+         */
+        private int segmentCount;
+        /**
+         * 优先级
+         */
+        private int priority = DownloadConst.Priority.NORMAL;
+        /**
+         * 每秒最多下载的字节数
+         */
+        private long maxBytesPerSecond;
+        /**
+         * 校验算法
+         */
+        private String checksumType;
+        /**
+         * 期望的十六进制摘要
+         */
+        private String checksum;
+        /**
+         * 数据处理器
+         */
+        private DownloadProcessor processor;
+        /**
+         * 回调执行器
+         */
+        private Executor callbackExecutor;
 
         public Builder url(String url) {
             this.url = url;
@@ -239,6 +417,56 @@ public class DownloadInfo implements Serializable{
             return this;
         }
 
+        public Builder segmentCount(int segmentCount){
+            this.segmentCount = segmentCount;
+            return this;
+        }
+
+        public Builder priority(int priority){
+            this.priority = priority;
+            return this;
+        }
+
+        public Builder maxBytesPerSecond(long maxBytesPerSecond){
+            this.maxBytesPerSecond = maxBytesPerSecond;
+            return this;
+        }
+
+        /**
+         * 下载完成后校验文件
+         *
+         * @param type     校验算法，见{@link DownloadConst.Checksum}
+         * @param checksum 期望的十六进制摘要
+         * @return Builder
+         */
+        public Builder checksum(String type, String checksum){
+            this.checksumType = type;
+            this.checksum = checksum;
+            return this;
+        }
+
+        /**
+         * 边下载边处理数据，例如用{@link DownloadZipExtractor}解压到目录
+         *
+         * @param processor 数据处理器
+         * @return Builder
+         */
+        public Builder processor(DownloadProcessor processor){
+            this.processor = processor;
+            return this;
+        }
+
+        /**
+         * 设置本任务的回调执行器，见{@link DownloadExecutors}，不设置时使用{@link DownloadConfig}中的回调执行器
+         *
+         * @param callbackExecutor 回调执行器
+         * @return Builder
+         */
+        public Builder callbackExecutor(Executor callbackExecutor){
+            this.callbackExecutor = callbackExecutor;
+            return this;
+        }
+
         public DownloadInfo build(){
             return new DownloadInfo(this);
         }
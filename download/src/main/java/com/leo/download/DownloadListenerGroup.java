@@ -0,0 +1,127 @@
+package com.leo.download;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+
+/**
+ * 监听组，将同一下载的回调分发给多个监听。同一地址重复开始下载时，后加入的监听共享正在进行的下载，
+ * 也用于按任务id注册的监听和所有任务的监听
+ */
+public class DownloadListenerGroup implements DownloadListener {
+    /**
+     * 监听列表
+     */
+    private CopyOnWriteArrayList<DownloadListener> mListeners;
+    /**
+     * 回调执行器，为null时使用默认的回调执行器
+     */
+    private volatile Executor mCallbackExecutor;
+
+    /**
+     * 构造方法
+     *
+     * @param listener 开始下载时的监听，可以为null
+     */
+    public DownloadListenerGroup(DownloadListener listener) {
+        mListeners = new CopyOnWriteArrayList<>();
+        add(listener);
+    }
+
+    /**
+     * 添加监听，已添加的监听不重复添加
+     *
+     * @param listener 监听
+     */
+    public void add(DownloadListener listener) {
+        if (listener != null) {
+            mListeners.addIfAbsent(listener);
+        }
+    }
+
+    /**
+     * 移除监听
+     *
+     * @param listener 监听
+     */
+    public void remove(DownloadListener listener) {
+        mListeners.remove(listener);
+    }
+
+    /**
+     * 移除所有监听
+     */
+    public void clear() {
+        mListeners.clear();
+    }
+
+    /**
+     * 是否没有监听
+     *
+     * @return 是否为空
+     */
+    public boolean isEmpty() {
+        return mListeners.isEmpty();
+    }
+
+    public Executor getCallbackExecutor() {
+        return mCallbackExecutor;
+    }
+
+    /**
+     * 设置本组回调使用的执行器
+     *
+     * @param callbackExecutor 回调执行器，为null时使用默认的回调执行器
+     */
+    public void setCallbackExecutor(Executor callbackExecutor) {
+        mCallbackExecutor = callbackExecutor;
+    }
+
+    @Override
+    public void onStart(int id, long size) {
+        for (DownloadListener listener : mListeners) {
+            listener.onStart(id, size);
+        }
+    }
+
+    @Override
+    public void onProgress(int id, long currSize, long totalSize) {
+        for (DownloadListener listener : mListeners) {
+            listener.onProgress(id, currSize, totalSize);
+        }
+    }
+
+    @Override
+    public void onRestart(int id, long currSize, long totalSize) {
+        for (DownloadListener listener : mListeners) {
+            listener.onRestart(id, currSize, totalSize);
+        }
+    }
+
+    @Override
+    public void onPause(int id, long currSize) {
+        for (DownloadListener listener : mListeners) {
+            listener.onPause(id, currSize);
+        }
+    }
+
+    @Override
+    public void onComplete(int id, String dir, String name) {
+        for (DownloadListener listener : mListeners) {
+            listener.onComplete(id, dir, name);
+        }
+    }
+
+    @Override
+    public void onCancel(int id) {
+        for (DownloadListener listener : mListeners) {
+            listener.onCancel(id);
+        }
+    }
+
+    @Override
+    public void onError(int id, DownloadError error) {
+        for (DownloadListener listener : mListeners) {
+            listener.onError(id, error);
+        }
+    }
+}
@@ -1,30 +1,24 @@
 package com.leo.download;
 
 import android.content.Context;
-import android.text.TextUtils;
-import android.util.Log;
-import android.webkit.URLUtil;
 
-import java.io.File;
 import java.util.List;
 
+import okhttp3.OkHttpClient;
+
 /**
- * 下载管理，下载功能入口
+ * 下载管理，Android上的下载功能入口。使用数据库保存下载记录，在主线程回调，
+ * 下载逻辑由{@link DownloadEngine}完成，其他平台可以直接使用DownloadEngine
  */
 public class DownloadManager {
-    private static final String TAG = "Download";
     /**
      * 下载管理单例
      */
     private static DownloadManager sInstance;
     /**
-     * 数据库单例
-     */
-    private DownloadDbHelper mDbHelper;
-    /**
-     * 下载任务
+     * 下载核心
      */
-    private DownloadTask mTask;
+    private DownloadEngine mEngine;
 
     /**
      * 构造方法
@@ -32,8 +26,7 @@ public class DownloadManager {
      * @param context 上下文对象
      */
     private DownloadManager(Context context) {
-        mDbHelper = DownloadDbHelper.getInstance(context);
-        mTask = new DownloadTask();
+        mEngine = new DownloadEngine(DownloadDbHelper.getInstance(context));
     }
 
     /**
@@ -54,216 +47,62 @@ public class DownloadManager {
     }
 
     /**
-     * 开始续传，会根据下载状态进行判断开始/暂停
+     * 获取下载核心
      *
-     * @param info     下载信息
-     * @param listener 下载监听
+     * @return 下载核心
      */
-    private void enquene(DownloadInfo info, DownloadListener listener) {
-        if (!isUrlValid(info.getUrl())) {
-            return;
-        }
-        DownloadInfo localInfo = mDbHelper.queryFirst(DownloadDbHelper.COLUMN_URL, info.getUrl());
-        if (localInfo == null) {
-            deleteFile(info.getDir() + File.separator + info.getName());
-            start(info, listener);
-        } else {
-            File file = new File(localInfo.getDir() + File.separator + localInfo.getName());
-            if(localInfo.getTotalSize() == 0){
-                restart(localInfo, listener);
-                return;
-            }
-            if (file.length() >= localInfo.getTotalSize()) {
-                new DownloadListenerWrapper(localInfo, listener).onComplete(localInfo.getId(),
-                        localInfo.getDir(), localInfo.getName());
-            } else {
-                switch (localInfo.getStatus()) {
-                    case DownloadConst.Status.START:
-                        _pause(info.getUrl(), listener);
-                        break;
-                    case DownloadConst.Status.PAUSE:
-                        restart(localInfo, listener);
-                        break;
-                    case DownloadConst.Status.FAIL:
-                        restart(localInfo, listener);
-                        break;
-                    case DownloadConst.Status.FINISH:
-                        new DownloadListenerWrapper(localInfo, listener).onComplete(localInfo.getId(),
-                                localInfo.getDir(), localInfo.getName());
-                        break;
-                }
-            }
-        }
+    public DownloadEngine getEngine() {
+        return mEngine;
     }
 
     /**
-     * 开始下载
+     * 设置下载配置，对之后开始的任务生效
      *
-     * @param info     下载信息
-     * @param listener 下载监听
+     * @param config 下载配置
      */
-    private void start(DownloadInfo info, DownloadListener listener) {
-        mDbHelper.insert(info);
-        mTask.start(info.getUrl(), info.getDir() + File.separator + info.getName(),
-                info.isRename(), new DownloadListenerWrapper(info, listener));
+    public void setConfig(DownloadConfig config) {
+        mEngine.setConfig(config);
     }
 
     /**
-     * 重新开始下载
+     * 获取所有任务共享的OkHttpClient
      *
-     * @param info     下载信息
-     * @param listener 下载监听
+     * @return OkHttpClient
      */
-    private void restart(DownloadInfo info, DownloadListener listener) {
-        mTask.start(info.getUrl(), info.getDir() + File.separator + info.getName(),
-                info.isRename(), new DownloadListenerWrapper(info, listener));
+    public OkHttpClient getClient() {
+        return mEngine.getClient();
     }
 
     /**
-     * 暂停下载
+     * 获取下载配置
      *
-     * @param url      下载地址
-     * @param listener 下载监听
+     * @return 下载配置
      */
-    private void _pause(String url, DownloadListener listener) {
-        if (!isUrlValid(url)) {
-            return;
-        }
-        DownloadInfo info = mDbHelper.queryFirst("url", url);
-        if (info == null) {
-            return;
-        }
-        mTask.pause(url, info.getDir() + File.separator + info.getName(), new DownloadListenerWrapper(info, listener));
+    public DownloadConfig getConfig() {
+        return mEngine.getConfig();
     }
 
     /**
-     * 取消下载
+     * 开始续传，会根据下载状态进行判断开始/暂停
      *
-     * @param url      下载地址
+     * @param info     下载信息
      * @param listener 下载监听
      */
-    private void _cancel(String url, DownloadListener listener) {
-        if (!isUrlValid(url)) {
-            return;
-        }
-        DownloadInfo info = mDbHelper.queryFirst("url", url);
-        if (info == null) {
-            return;
-        }
-        mTask.cancel(url, new DownloadListenerWrapper(info, listener));
+    public void enquene(DownloadInfo info, DownloadListener listener) {
+        mEngine.enquene(info, listener);
     }
 
     /**
-     * 是否是有效的url
+     * 批量开始续传，每个任务与{@link #enquene(DownloadInfo, DownloadListener)}的处理相同。
+     * 已有记录一次查出，新任务在一个事务中插入，需要开始的任务一起交给调度器
      *
-     * @param url 要判断的url
-     * @return 是否有效
+     * @param infos    下载信息列表，无效或重复的地址被忽略
+     * @param listener 下载监听，回调中的id区分任务
      */
-    private boolean isUrlValid(String url) {
-        return !TextUtils.isEmpty(url) && URLUtil.isNetworkUrl(url);
-    }
-
-    /**
-     * 下载监听的包装类，回调中先进行数据库操作，再回调到主线程
-     */
-    private class DownloadListenerWrapper implements DownloadListener {
-        private DownloadInfo mDownloadInfo;
-        private DownloadListener mListener;
-
-        public DownloadListenerWrapper(DownloadInfo downloadInfo, DownloadListener listener) {
-            mDownloadInfo = downloadInfo;
-            mListener = listener;
-        }
-
-        @Override
-        public void onStart(int id, long size) {
-            log("Start->id:" + mDownloadInfo.getId() + " size:" + size);
-            mDownloadInfo.setStatus(DownloadConst.Status.START);
-            mDownloadInfo.setStartTime(System.currentTimeMillis());
-            mDownloadInfo.setTotalSize(size);
-            mDbHelper.update(mDownloadInfo);
-            if (mListener != null)
-                mListener.onStart(mDownloadInfo.getId(), size);
-        }
-
-        @Override
-        public void onProgress(int id, long currSize, long totalSize) {
-            log("Progress->id:" + mDownloadInfo.getId() + " curr:" + currSize + " total:" + totalSize);
-            if (mListener != null)
-                mListener.onProgress(mDownloadInfo.getId(), currSize, totalSize);
-        }
-
-        @Override
-        public void onRestart(int id, long currSize, long totalSize) {
-            log("Restart->id:" + mDownloadInfo.getId() + " curr:" + currSize + " total:" + totalSize);
-            mDownloadInfo.setStatus(DownloadConst.Status.START);
-            mDownloadInfo.setCurrSize(currSize);
-            mDownloadInfo.setTotalSize(totalSize);
-            mDbHelper.update(mDownloadInfo);
-            if (mListener != null)
-                mListener.onRestart(mDownloadInfo.getId(), currSize, totalSize);
-        }
-
-        @Override
-        public void onPause(int id, long currSize) {
-            log("Pause->id:" + mDownloadInfo.getId() + " curr:" + currSize);
-            mDownloadInfo.setStatus(DownloadConst.Status.PAUSE);
-            mDownloadInfo.setCurrSize(currSize);
-            mDbHelper.update(mDownloadInfo);
-            if (mListener != null)
-                mListener.onPause(mDownloadInfo.getId(), currSize);
-        }
-
-        @Override
-        public void onComplete(int id, String dir, String name) {
-            log("Complete->id:" + mDownloadInfo.getId() + " dir:" + dir + " name:" + name);
-            mDownloadInfo.setFinishTime(System.currentTimeMillis());
-            mDownloadInfo.setStatus(DownloadConst.Status.FINISH);
-            mDownloadInfo.setCurrSize(mDownloadInfo.getTotalSize());
-            mDbHelper.update(mDownloadInfo);
-            if (mListener != null)
-                mListener.onComplete(mDownloadInfo.getId(), dir, name);
-        }
-
-        @Override
-        public void onCancel(int id) {
-            log("Cancel->id:" + mDownloadInfo.getId());
-            mDbHelper.delete(mDownloadInfo.getId());
-            deleteFile(mDownloadInfo.getDir() + File.separator + mDownloadInfo.getName());
-            if (mListener != null)
-                mListener.onCancel(mDownloadInfo.getId());
-        }
-
-        @Override
-        public void onError(int id, DownloadError error) {
-            log("Error->id:" + id + " error:" + error.getCode());
-            mDownloadInfo.setStatus(DownloadConst.Error.FAIL);
-            mDbHelper.update(mDownloadInfo);
-            if (mListener != null)
-                mListener.onError(mDownloadInfo.getId(), error);
-        }
+    public void enqueueAll(List<DownloadInfo> infos, DownloadListener listener) {
+        mEngine.enqueueAll(infos, listener);
     }
 
-    private void deleteFile(String path) {
-        if (!TextUtils.isEmpty(path)) {
-            File file = new File(path);
-            if (!file.exists())
-                return;
-            boolean ret = file.delete();
-            if (!ret) {
-                Log.v("downloadmanager", "delete file failed");
-            }
-        }
-    }
-
-    private void log(String message) {
-        if (!BuildConfig.DEBUG) {
-            return;
-        }
-        Log.d(TAG, "-> " + message);
-    }
-
-
     /**
      * 开始下载
      *
@@ -273,18 +112,7 @@ public class DownloadManager {
      * @param listener 下载监听
      */
     public void start(String url, String path, boolean rename, DownloadListener listener) {
-        _cancel(url, listener);//停止
-        deleteFile(path);//删文件
-        DownloadInfo localInfo = mDbHelper.queryFirst(DownloadDbHelper.COLUMN_URL, url);
-        if (localInfo != null) {
-           mDbHelper.delete(url);//删记录
-        }
-        DownloadInfo info = new DownloadInfo.Builder()
-                .url(url)
-                .path(path)
-                .rename(rename)
-                .build();//创建新对象
-        start(info, listener);//下载
+        mEngine.start(url, path, rename, listener);
     }
 
     /**
@@ -295,7 +123,7 @@ public class DownloadManager {
      * @param listener 下载监听
      */
     public void start(String url, String path, DownloadListener listener) {
-        start(url, path, false, listener);
+        mEngine.start(url, path, listener);
     }
 
     /**
@@ -307,12 +135,7 @@ public class DownloadManager {
      * @param listener 下载监听
      */
     public void enquene(String url, String path, boolean rename, DownloadListener listener) {
-        DownloadInfo info = new DownloadInfo.Builder()
-                .url(url)
-                .path(path)
-                .rename(rename)
-                .build();
-        enquene(info, listener);
+        mEngine.enquene(url, path, rename, listener);
     }
 
     /**
@@ -323,7 +146,7 @@ public class DownloadManager {
      * @param listener 下载监听
      */
     public void enquene(String url, String path, DownloadListener listener) {
-        enquene(url, path, false, listener);
+        mEngine.enquene(url, path, listener);
     }
 
     /**
@@ -333,7 +156,7 @@ public class DownloadManager {
      * @param listener 下载监听
      */
     public void pause(String url, DownloadListener listener) {
-        _pause(url, listener);
+        mEngine.pause(url, listener);
     }
 
     /**
@@ -343,7 +166,7 @@ public class DownloadManager {
      * @param listener 下载监听
      */
     public void cancel(String url, DownloadListener listener) {
-        _cancel(url, listener);
+        mEngine.cancel(url, listener);
     }
 
     /**
@@ -353,7 +176,7 @@ public class DownloadManager {
      * @return 下载信息
      */
     public DownloadInfo query(int id) {
-        return mDbHelper.queryFirst(DownloadDbHelper.COLUMN_ID, String.valueOf(id));
+        return mEngine.query(id);
     }
 
     /**
@@ -363,16 +186,47 @@ public class DownloadManager {
      * @return 下载信息
      */
     public DownloadInfo query(String url) {
-        return mDbHelper.queryFirst(DownloadDbHelper.COLUMN_URL, url);
+        return mEngine.query(url);
     }
 
     /**
-     * 查询所有下载任务
+     * 查询所有下载任务，记录较多时使用{@link #query(DownloadQuery)}分页查询或{@link #queryLazy(DownloadQuery)}
      *
      * @return 下载任务列表
      */
     public List<DownloadInfo> queryAll() {
-        return mDbHelper.queryAll();
+        return mEngine.queryAll();
+    }
+
+    /**
+     * 按条件查询下载任务，可按状态和开始时间过滤、分页、只查询部分字段
+     *
+     * @param query 查询条件
+     * @return 下载任务列表
+     */
+    public List<DownloadInfo> query(DownloadQuery query) {
+        return mEngine.query(query);
+    }
+
+    /**
+     * 按条件统计下载任务数，忽略分页
+     *
+     * @param query 查询条件
+     * @return 任务数
+     */
+    public int count(DownloadQuery query) {
+        return mEngine.count(query);
+    }
+
+    /**
+     * 按条件查询下载任务，返回按需读取的列表，适合RecyclerView等只显示部分记录的列表。
+     * 列表只能在同一线程中访问，不再使用时需要关闭
+     *
+     * @param query 查询条件
+     * @return 下载任务列表
+     */
+    public DownloadRecordList queryLazy(DownloadQuery query) {
+        return mEngine.queryLazy(query);
     }
 
     /**
@@ -381,7 +235,7 @@ public class DownloadManager {
      * @param url 下载地址
      */
     public void deleteRecord(String url) {
-        mDbHelper.delete(url);
+        mEngine.deleteRecord(url);
     }
 
     /**
@@ -391,12 +245,119 @@ public class DownloadManager {
      * @param url    下载地址
      */
     public void updateStatus(int status, String url) {
-        mDbHelper.updateStatus(status, url);
+        mEngine.updateStatus(status, url);
     }
 
-    public boolean isDownloading(String url) {
-        DownloadInfo info = mDbHelper.queryFirst(DownloadDbHelper.COLUMN_URL, url);
-        return info != null && info.getStatus() == DownloadConst.Status.START;
+    /**
+     * 继续上次未开始的等待任务，如进程重启后恢复下载队列
+     *
+     * @param listener 下载监听
+     */
+    public void resumePending(DownloadListener listener) {
+        mEngine.resumePending(listener);
+    }
+
+    /**
+     * 添加任务监听，不影响任务的开始和暂停，需要在不再使用时移除
+     *
+     * @param id       任务id
+     * @param listener 下载监听
+     */
+    public void addListener(int id, DownloadListener listener) {
+        mEngine.addListener(id, listener);
     }
 
+    /**
+     * 移除任务监听
+     *
+     * @param id       任务id
+     * @param listener 下载监听
+     */
+    public void removeListener(int id, DownloadListener listener) {
+        mEngine.removeListener(id, listener);
+    }
+
+    /**
+     * 添加所有任务的监听，回调中的id区分任务，需要在不再使用时移除
+     *
+     * @param listener 下载监听
+     */
+    public void addGlobalListener(DownloadListener listener) {
+        mEngine.addGlobalListener(listener);
+    }
+
+    /**
+     * 移除所有任务的监听
+     *
+     * @param listener 下载监听
+     */
+    public void removeGlobalListener(DownloadListener listener) {
+        mEngine.removeGlobalListener(listener);
+    }
+
+    /**
+     * 等待所有下载记录写入数据库，可在退出前调用
+     *
+     * @return 记录是否都已保存，有写入失败后被丢弃时返回false
+     */
+    public boolean flush() {
+        return mEngine.flush();
+    }
+
+    /**
+     * 修改全局限速，正在下载的任务立即生效，带宽在下载中的任务间平均分配
+     *
+     * @param bytesPerSecond 每秒最多下载的字节数，0表示不限速
+     */
+    public void setMaxBytesPerSecond(long bytesPerSecond) {
+        mEngine.setMaxBytesPerSecond(bytesPerSecond);
+    }
+
+    /**
+     * 修改任务限速，正在下载时立即生效
+     *
+     * @param url            下载地址
+     * @param bytesPerSecond 每秒最多下载的字节数，0表示不限速
+     */
+    public void setMaxBytesPerSecond(String url, long bytesPerSecond) {
+        mEngine.setMaxBytesPerSecond(url, bytesPerSecond);
+    }
+
+    /**
+     * 某个任务最近一次下载的指标快照，包括速度、首字节时间、连接复用、重试和写入字节数
+     *
+     * @param url 下载地址
+     * @return 指标快照，本次运行中没有下载过时返回null
+     */
+    public DownloadMetrics getMetrics(String url) {
+        return mEngine.getMetrics(url);
+    }
+
+    /**
+     * 本次运行中所有任务的汇总指标快照
+     *
+     * @return 指标快照
+     */
+    public DownloadMetrics getMetrics() {
+        return mEngine.getMetrics();
+    }
+
+    /**
+     * 设置指标接收方，下载中按进度回调的频率推送，下载结束时推送最终的指标
+     *
+     * @param sink 指标接收方，为null时不推送
+     */
+    public void setMetricsSink(DownloadMetricsSink sink) {
+        mEngine.setMetricsSink(sink);
+    }
+
+    /**
+     * 任务是否在下载中
+     *
+     * @param url 下载地址
+     * @return 是否在下载中
+     */
+    public boolean isDownloading(String url) {
+        return mEngine.isDownloading(url);
+    }
 }
@@ -0,0 +1,366 @@
+package com.leo.download;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 保存在内存中的下载记录，不依赖Android，用于JVM上的{@link DownloadEngine}和测试。
+ * 记录在进程结束后丢失，需要保存时使用{@link DownloadFileStore}
+ */
+public class DownloadMemoryStore implements DownloadStore {
+    /**
+     * 按id排列的任务，保存的是传入的对象，与数据库实现的缓存一致
+     */
+    private final TreeMap<Integer, DownloadInfo> mInfos = new TreeMap<>();
+    /**
+     * 以任务id为key的分段，保存已提交的下载位置
+     */
+    private final Map<Integer, List<DownloadSegment>> mSegments = new HashMap<>();
+    /**
+     * 下一个任务的id
+     */
+    private int mNextId = 1;
+
+    @Override
+    public synchronized DownloadInfo queryFirst(String key, String value) {
+        for (DownloadInfo info : mInfos.values()) {
+            if (matches(info, key, value)) {
+                return info;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public synchronized List<DownloadInfo> query(String key, String value) {
+        List<DownloadInfo> infos = new ArrayList<>();
+        for (DownloadInfo info : mInfos.values()) {
+            if (matches(info, key, value)) {
+                infos.add(info);
+            }
+        }
+        return infos;
+    }
+
+    @Override
+    public synchronized List<DownloadInfo> queryAll() {
+        return new ArrayList<>(mInfos.values());
+    }
+
+    /**
+     * 按条件查询任务，内存中的记录总是完整返回，忽略查询的字段
+     *
+     * @param query 查询条件
+     * @return 任务列表
+     */
+    @Override
+    public synchronized List<DownloadInfo> query(DownloadQuery query) {
+        List<DownloadInfo> infos = filter(query);
+        if (query.isDescending()) {
+            Collections.reverse(infos);
+        }
+        int from = Math.min(query.getOffset(), infos.size());
+        int to = query.getLimit() > 0 ? Math.min(from + query.getLimit(), infos.size()) : infos.size();
+        return new ArrayList<>(infos.subList(from, to));
+    }
+
+    @Override
+    public synchronized int count(DownloadQuery query) {
+        return filter(query).size();
+    }
+
+    @Override
+    public DownloadRecordList queryLazy(DownloadQuery query) {
+        final List<DownloadInfo> infos = query(query);
+        return new DownloadRecordList() {
+            @Override
+            public DownloadInfo get(int index) {
+                return infos.get(index);
+            }
+
+            @Override
+            public int size() {
+                return infos.size();
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    @Override
+    public synchronized Map<String, DownloadInfo> queryByUrls(List<String> urls) {
+        Map<String, DownloadInfo> result = new LinkedHashMap<>();
+        for (String url : urls) {
+            DownloadInfo info = queryFirst(COLUMN_URL, url);
+            if (info != null) {
+                result.put(url, info);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 插入任务，同一下载地址的旧记录及其分段被删除
+     *
+     * @param info 任务信息
+     * @return 任务id
+     */
+    @Override
+    public synchronized int insert(DownloadInfo info) {
+        remove(info.getUrl());
+        info.setId(mNextId++);
+        mInfos.put(info.getId(), info);
+        mSegments.put(info.getId(), new ArrayList<DownloadSegment>());
+        onChanged();
+        return info.getId();
+    }
+
+    @Override
+    public synchronized void insertAll(List<DownloadInfo> infos) {
+        for (DownloadInfo info : infos) {
+            insert(info);
+        }
+    }
+
+    @Override
+    public synchronized void update(DownloadInfo info) {
+        if (mInfos.containsKey(info.getId())) {
+            mInfos.put(info.getId(), info);
+            onChanged();
+        }
+    }
+
+    @Override
+    public synchronized void delete(int id) {
+        mInfos.remove(id);
+        mSegments.remove(id);
+        onChanged();
+    }
+
+    @Override
+    public synchronized void delete(String url) {
+        remove(url);
+        onChanged();
+    }
+
+    @Override
+    public synchronized void updateStatus(int status, String url) {
+        DownloadInfo info = queryFirst(COLUMN_URL, url);
+        if (info != null) {
+            info.setStatus(status);
+            onChanged();
+        }
+    }
+
+    /**
+     * 写入是同步完成的，不需要等待
+     *
+     * @return 总是返回true
+     */
+    @Override
+    public boolean flush() {
+        return true;
+    }
+
+    @Override
+    public synchronized List<DownloadSegment> querySegments(int id) {
+        return DownloadSegment.copyCheckpoints(mSegments.get(id));
+    }
+
+    @Override
+    public synchronized Map<Integer, List<DownloadSegment>> querySegments(List<Integer> ids) {
+        Map<Integer, List<DownloadSegment>> result = new HashMap<>();
+        for (Integer id : ids) {
+            result.put(id, querySegments(id));
+        }
+        return result;
+    }
+
+    @Override
+    public synchronized void replaceSegments(DownloadInfo info) {
+        mSegments.put(info.getId(), DownloadSegment.copyCheckpoints(info.getSegments()));
+        onChanged();
+    }
+
+    @Override
+    public synchronized void updateSegments(DownloadInfo info) {
+        if (!info.isSegmented()) {
+            return;
+        }
+        replaceSegments(info);
+    }
+
+    @Override
+    public synchronized void deleteSegments(int id) {
+        mSegments.put(id, new ArrayList<DownloadSegment>());
+        onChanged();
+    }
+
+    /**
+     * 记录修改后调用，在锁内执行，子类可以在这里保存记录
+     */
+    protected void onChanged() {
+    }
+
+    /**
+     * 所有任务的快照，用于保存
+     *
+     * @return 任务列表
+     */
+    synchronized List<DownloadInfo> snapshotInfos() {
+        return new ArrayList<>(mInfos.values());
+    }
+
+    /**
+     * 所有分段的快照，用于保存
+     *
+     * @return 任务id到分段列表的映射
+     */
+    synchronized Map<Integer, List<DownloadSegment>> snapshotSegments() {
+        Map<Integer, List<DownloadSegment>> segments = new HashMap<>();
+        for (Map.Entry<Integer, List<DownloadSegment>> entry : mSegments.entrySet()) {
+            segments.put(entry.getKey(), DownloadSegment.copyCheckpoints(entry.getValue()));
+        }
+        return segments;
+    }
+
+    /**
+     * 恢复保存的记录，替换当前所有记录
+     *
+     * @param infos    任务列表
+     * @param segments 任务id到分段列表的映射
+     */
+    synchronized void restore(List<DownloadInfo> infos, Map<Integer, List<DownloadSegment>> segments) {
+        mInfos.clear();
+        mSegments.clear();
+        mNextId = 1;
+        for (DownloadInfo info : infos) {
+            //分段在续传时通过querySegments读取已提交的位置
+            info.setSegments(null);
+            mInfos.put(info.getId(), info);
+            mNextId = Math.max(mNextId, info.getId() + 1);
+        }
+        mSegments.putAll(segments);
+    }
+
+    /**
+     * 删除同一下载地址的任务及其分段
+     *
+     * @param url 下载地址
+     */
+    private void remove(String url) {
+        DownloadInfo old = queryFirst(COLUMN_URL, url);
+        while (old != null) {
+            mInfos.remove(old.getId());
+            mSegments.remove(old.getId());
+            old = queryFirst(COLUMN_URL, url);
+        }
+    }
+
+    /**
+     * 按查询条件过滤，结果按id升序
+     *
+     * @param query 查询条件
+     * @return 任务列表
+     */
+    private List<DownloadInfo> filter(DownloadQuery query) {
+        List<DownloadInfo> infos = new ArrayList<>();
+        for (DownloadInfo info : mInfos.values()) {
+            if (accept(query, info)) {
+                infos.add(info);
+            }
+        }
+        return infos;
+    }
+
+    private static boolean accept(DownloadQuery query, DownloadInfo info) {
+        int[] statuses = query.getStatuses();
+        if (statuses != null && statuses.length > 0) {
+            boolean found = false;
+            for (int status : statuses) {
+                if (info.getStatus() == status) {
+                    found = true;
+                    break;
+                }
+            }
+            if (!found) {
+                return false;
+            }
+        }
+        if (query.getStartTimeFrom() > 0 && info.getStartTime() < query.getStartTimeFrom()) {
+            return false;
+        }
+        if (query.getStartTimeTo() > 0 && info.getStartTime() >= query.getStartTimeTo()) {
+            return false;
+        }
+        if (query.getAfterId() > 0) {
+            return query.isDescending() ? info.getId() < query.getAfterId() : info.getId() > query.getAfterId();
+        }
+        return true;
+    }
+
+    /**
+     * 字段值是否相等，比较方式与数据库中保存的值一致
+     *
+     * @param info  任务信息
+     * @param key   字段名
+     * @param value 字段值
+     * @return 是否相等
+     */
+    private static boolean matches(DownloadInfo info, String key, String value) {
+        String actual = getValue(info, key);
+        return actual != null && actual.equals(value);
+    }
+
+    private static String getValue(DownloadInfo info, String key) {
+        switch (key) {
+            case COLUMN_ID:
+                return String.valueOf(info.getId());
+            case COLUMN_URL:
+                return info.getUrl();
+            case COLUMN_DIR:
+                return info.getDir();
+            case COLUMN_NAME:
+                return info.getName();
+            case COLUMN_CURR:
+                return String.valueOf(info.getCurrSize());
+            case COLUMN_TOTAL:
+                return String.valueOf(info.getTotalSize());
+            case COLUMN_TITLE:
+                return info.getTitle();
+            case COLUMN_DESC:
+                return info.getDescription();
+            case COLUMN_STATUS:
+                return String.valueOf(info.getStatus());
+            case COLUMN_START:
+                return String.valueOf(info.getStartTime());
+            case COLUMN_FINISH:
+                return String.valueOf(info.getFinishTime());
+            case COLUMN_RENAME:
+                return info.isRename() ? "1" : "0";
+            case COLUMN_MIMETYPE:
+                return info.getMimetype();
+            case COLUMN_PRIORITY:
+                return String.valueOf(info.getPriority());
+            case COLUMN_MAX_SPEED:
+                return String.valueOf(info.getMaxBytesPerSecond());
+            case COLUMN_CHECKSUM_TYPE:
+                return info.getChecksumType();
+            case COLUMN_CHECKSUM:
+                return info.getChecksum();
+            case COLUMN_ETAG:
+                return info.getEtag();
+            case COLUMN_LAST_MODIFIED:
+                return info.getLastModified();
+            default:
+                return null;
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package com.leo.download;
+
+/**
+ * 下载指标快照，单个任务的一次下载或所有任务的汇总
+ */
+public class DownloadMetrics {
+    /**
+     * 下载地址，汇总时为null
+     */
+    private String url;
+    /**
+     * 本次下载写入的字节数
+     */
+    private long bytesWritten;
+    /**
+     * 下载耗时，毫秒
+     */
+    private long elapsedTime;
+    /**
+     * 最近一秒左右的速度，字节/秒
+     */
+    private long currentSpeed;
+    /**
+     * 从发起请求到收到响应的时间，毫秒，汇总时为平均值
+     */
+    private long timeToFirstByte;
+    /**
+     * 参与计算首字节时间的请求数
+     */
+    private int firstByteCount;
+    /**
+     * 请求数
+     */
+    private int requestCount;
+    /**
+     * 复用已有连接的请求数
+     */
+    private int reusedConnectionCount;
+    /**
+     * 自动重试次数
+     */
+    private int retryCount;
+    /**
+     * 速度过低被重新连接的次数
+     */
+    private int stallCount;
+    /**
+     * 速度过低的累计时间，毫秒
+     */
+    private long stallTime;
+    /**
+     * 是否已结束
+     */
+    private boolean finished;
+
+    public DownloadMetrics(String url) {
+        this.url = url;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    public long getElapsedTime() {
+        return elapsedTime;
+    }
+
+    /**
+     * 平均速度
+     *
+     * @return 字节/秒
+     */
+    public long getAverageSpeed() {
+        return elapsedTime > 0 ? bytesWritten * 1000 / elapsedTime : 0;
+    }
+
+    public long getCurrentSpeed() {
+        return currentSpeed;
+    }
+
+    public long getTimeToFirstByte() {
+        return timeToFirstByte;
+    }
+
+    public int getRequestCount() {
+        return requestCount;
+    }
+
+    public int getReusedConnectionCount() {
+        return reusedConnectionCount;
+    }
+
+    public int getRetryCount() {
+        return retryCount;
+    }
+
+    public int getStallCount() {
+        return stallCount;
+    }
+
+    public long getStallTime() {
+        return stallTime;
+    }
+
+    public boolean isFinished() {
+        return finished;
+    }
+
+    void setBytesWritten(long bytesWritten) {
+        this.bytesWritten = bytesWritten;
+    }
+
+    void setElapsedTime(long elapsedTime) {
+        this.elapsedTime = elapsedTime;
+    }
+
+    void setCurrentSpeed(long currentSpeed) {
+        this.currentSpeed = currentSpeed;
+    }
+
+    void setTimeToFirstByte(long timeToFirstByte, int count) {
+        this.timeToFirstByte = timeToFirstByte;
+        this.firstByteCount = count;
+    }
+
+    void setRequestCount(int requestCount, int reusedConnectionCount) {
+        this.requestCount = requestCount;
+        this.reusedConnectionCount = reusedConnectionCount;
+    }
+
+    void setRetryCount(int retryCount) {
+        this.retryCount = retryCount;
+    }
+
+    void setStall(int stallCount, long stallTime) {
+        this.stallCount = stallCount;
+        this.stallTime = stallTime;
+    }
+
+    void setFinished(boolean finished) {
+        this.finished = finished;
+    }
+
+    /**
+     * 累加另一个快照，用于汇总。速度和耗时累加，首字节时间按请求数加权平均
+     *
+     * @param other 快照
+     */
+    void add(DownloadMetrics other) {
+        bytesWritten += other.bytesWritten;
+        elapsedTime += other.elapsedTime;
+        currentSpeed += other.currentSpeed;
+        int count = firstByteCount + other.firstByteCount;
+        if (count > 0) {
+            timeToFirstByte = (timeToFirstByte * firstByteCount + other.timeToFirstByte * other.firstByteCount) / count;
+        }
+        firstByteCount = count;
+        requestCount += other.requestCount;
+        reusedConnectionCount += other.reusedConnectionCount;
+        retryCount += other.retryCount;
+        stallCount += other.stallCount;
+        stallTime += other.stallTime;
+    }
+
+    @Override
+    public String toString() {
+        return "DownloadMetrics{url=" + url + ", bytesWritten=" + bytesWritten + ", elapsedTime=" + elapsedTime
+                + ", averageSpeed=" + getAverageSpeed() + ", currentSpeed=" + currentSpeed
+                + ", timeToFirstByte=" + timeToFirstByte + ", requestCount=" + requestCount
+                + ", reusedConnectionCount=" + reusedConnectionCount + ", retryCount=" + retryCount
+                + ", stallCount=" + stallCount + ", stallTime=" + stallTime + ", finished=" + finished + "}";
+    }
+}
@@ -0,0 +1,173 @@
+package com.leo.download;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 记录一次下载的指标，由下载线程更新，{@link #snapshot()}可在任意线程调用
+ */
+public class DownloadMetricsRecorder {
+    /**
+     * 计算当前速度的窗口，纳秒
+     */
+    private static final long WINDOW = TimeUnit.SECONDS.toNanos(1);
+
+    /**
+     * 下载地址
+     */
+    private final String mUrl;
+    /**
+     * 开始时间，纳秒
+     */
+    private final long mStartTime;
+    /**
+     * 结束时间，纳秒，未结束时为0
+     */
+    private long mEndTime;
+    /**
+     * 写入的字节数
+     */
+    private long mBytes;
+    /**
+     * 首字节时间，毫秒，未收到响应时为-1
+     */
+    private long mTimeToFirstByte = -1;
+    /**
+     * 请求数
+     */
+    private int mRequestCount;
+    /**
+     * 复用已有连接的请求数
+     */
+    private int mReusedCount;
+    /**
+     * 重试次数
+     */
+    private int mRetryCount;
+    /**
+     * 速度过低被重新连接的次数
+     */
+    private int mStallCount;
+    /**
+     * 速度过低的累计时间，毫秒
+     */
+    private long mStallTime;
+    /**
+     * 当前窗口开始时间，纳秒
+     */
+    private long mWindowStart;
+    /**
+     * 当前窗口内写入的字节数
+     */
+    private long mWindowBytes;
+    /**
+     * 上一个窗口的速度，字节/秒
+     */
+    private long mCurrentSpeed;
+
+    /**
+     * 构造方法，从构造时开始计时
+     *
+     * @param url 下载地址
+     */
+    public DownloadMetricsRecorder(String url) {
+        mUrl = url;
+        mStartTime = System.nanoTime();
+        mWindowStart = mStartTime;
+    }
+
+    /**
+     * 发出一个请求
+     *
+     * @param reused 是否复用了已有连接
+     */
+    public synchronized void onRequest(boolean reused) {
+        mRequestCount++;
+        if (reused) {
+            mReusedCount++;
+        }
+    }
+
+    /**
+     * 收到响应，只记录第一个响应的首字节时间
+     */
+    public synchronized void onResponse() {
+        if (mTimeToFirstByte < 0) {
+            mTimeToFirstByte = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - mStartTime);
+        }
+    }
+
+    /**
+     * 写入数据
+     *
+     * @param count 字节数
+     */
+    public synchronized void onBytes(long count) {
+        mBytes += count;
+        mWindowBytes += count;
+        long now = System.nanoTime();
+        long elapsed = now - mWindowStart;
+        if (elapsed >= WINDOW) {
+            mCurrentSpeed = mWindowBytes * TimeUnit.SECONDS.toNanos(1) / elapsed;
+            mWindowStart = now;
+            mWindowBytes = 0;
+        }
+    }
+
+    /**
+     * 自动重试一次
+     */
+    public synchronized void onRetry() {
+        mRetryCount++;
+    }
+
+    /**
+     * 速度过低，重新连接
+     *
+     * @param stallTime 速度过低的时间，毫秒
+     */
+    public synchronized void onStall(long stallTime) {
+        mStallCount++;
+        mStallTime += stallTime;
+    }
+
+    /**
+     * 下载结束，停止计时
+     */
+    public synchronized void finish() {
+        if (mEndTime == 0) {
+            mEndTime = System.nanoTime();
+        }
+    }
+
+    public synchronized boolean isFinished() {
+        return mEndTime != 0;
+    }
+
+    /**
+     * 当前指标的快照
+     *
+     * @return 快照
+     */
+    public synchronized DownloadMetrics snapshot() {
+        long now = System.nanoTime();
+        boolean finished = mEndTime != 0;
+        DownloadMetrics metrics = new DownloadMetrics(mUrl);
+        metrics.setBytesWritten(mBytes);
+        metrics.setElapsedTime(TimeUnit.NANOSECONDS.toMillis((finished ? mEndTime : now) - mStartTime));
+        long speed = mCurrentSpeed;
+        if (speed == 0 && mWindowBytes > 0 && now > mWindowStart) {
+            //第一个窗口未结束时按已写入的数据估算
+            speed = mWindowBytes * TimeUnit.SECONDS.toNanos(1) / (now - mWindowStart);
+        }
+        //超过两个窗口没有更新说明已没有数据
+        metrics.setCurrentSpeed(finished || now - mWindowStart > 2 * WINDOW ? 0 : speed);
+        if (mTimeToFirstByte >= 0) {
+            metrics.setTimeToFirstByte(mTimeToFirstByte, 1);
+        }
+        metrics.setRequestCount(mRequestCount, mReusedCount);
+        metrics.setRetryCount(mRetryCount);
+        metrics.setStall(mStallCount, mStallTime);
+        metrics.setFinished(finished);
+        return metrics;
+    }
+}
@@ -0,0 +1,13 @@
+package com.leo.download;
+
+/**
+ * 下载指标接收方，按进度回调的频率和下载结束时收到指标快照
+ */
+public interface DownloadMetricsSink {
+    /**
+     * 收到指标快照，在下载线程调用，不应执行耗时操作
+     *
+     * @param metrics 指标快照
+     */
+    void onMetrics(DownloadMetrics metrics);
+}
@@ -0,0 +1,88 @@
+package com.leo.download;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.concurrent.Executor;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * 平台适配，下载核心通过它检查存储空间、分发回调和输出日志，不直接依赖Android。
+ * 默认实现用于普通JVM，Android上使用{@link AndroidPlatform}，也可以继承后自定义
+ */
+public class DownloadPlatform {
+    /**
+     * 当前运行的平台
+     */
+    private static final DownloadPlatform PLATFORM = findPlatform();
+
+    /**
+     * 获取当前运行的平台
+     *
+     * @return 平台适配
+     */
+    public static DownloadPlatform get() {
+        return PLATFORM;
+    }
+
+    /**
+     * 按类名加载Android适配，核心类不直接引用Android的类，可以脱离Android单独编译
+     *
+     * @return 平台适配
+     */
+    private static DownloadPlatform findPlatform() {
+        try {
+            Class.forName("android.os.Build");
+            return (DownloadPlatform) Class.forName("com.leo.download.AndroidPlatform").newInstance();
+        } catch (ClassNotFoundException | InstantiationException | IllegalAccessException e) {
+            return new DownloadPlatform();
+        }
+    }
+
+    /**
+     * 保存路径所在存储的剩余空间
+     *
+     * @param path 保存路径
+     * @return 空间大小
+     */
+    public long getAvailableSpace(String path) {
+        File dir = new File(path).getAbsoluteFile().getParentFile();
+        while (dir != null && !dir.exists()) {
+            dir = dir.getParentFile();
+        }
+        return dir != null ? dir.getUsableSpace() : Long.MAX_VALUE;
+    }
+
+    /**
+     * 为文件分配指定大小的存储空间，分配后写入连续，空间不足时在写入前失败。
+     * 默认实现不支持，由下载任务检查剩余空间
+     *
+     * @param file   文件
+     * @param length 文件大小
+     * @return 是否已分配，不支持时返回false
+     * @throws IOException 空间不足
+     */
+    public boolean allocate(RandomAccessFile file, long length) throws IOException {
+        return false;
+    }
+
+    /**
+     * 默认的回调执行器，JVM上在下载线程中直接回调
+     *
+     * @return 回调执行器
+     */
+    public Executor getCallbackExecutor() {
+        return DownloadExecutors.immediate();
+    }
+
+    /**
+     * 输出调试日志
+     *
+     * @param tag     标签
+     * @param message 日志
+     */
+    public void log(String tag, String message) {
+        Logger.getLogger(tag).log(Level.FINE, message);
+    }
+}
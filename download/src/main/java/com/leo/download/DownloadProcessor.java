@@ -0,0 +1,40 @@
+package com.leo.download;
+
+import java.io.IOException;
+
+/**
+ * 下载数据的流式处理，例如边下载边解压。数据在写入文件前按顺序交给处理器，与下载同时进行。
+ * 有处理器的任务使用单连接下载；已按分段下载的记录在完成后从文件中读取数据处理
+ */
+public interface DownloadProcessor {
+    /**
+     * 开始或续传时调用，处理器返回需要从哪个位置开始重新处理，该位置到已下载位置之间的数据从文件中读取后重放
+     *
+     * @param position 已下载的位置，从头下载时为0
+     * @return 开始处理的位置，不能大于已下载的位置
+     * @throws IOException 准备处理失败
+     */
+    long start(long position) throws IOException;
+
+    /**
+     * 处理下一段数据
+     *
+     * @param data   数据
+     * @param offset 起始位置
+     * @param count  字节数
+     * @throws IOException 处理失败
+     */
+    void process(byte[] data, int offset, int count) throws IOException;
+
+    /**
+     * 所有数据已处理，下载完成前调用
+     *
+     * @throws IOException 数据不完整或处理失败
+     */
+    void finish() throws IOException;
+
+    /**
+     * 暂停、出错或重试前调用，释放资源并记录可以继续处理的位置
+     */
+    void close();
+}
@@ -0,0 +1,179 @@
+package com.leo.download;
+
+/**
+ * 下载记录查询条件，支持按状态和开始时间过滤、按id分页以及只查询部分字段
+ */
+public class DownloadQuery {
+    /**
+     * 状态，为空时不过滤
+     */
+    private int[] statuses;
+    /**
+     * 开始时间下限（包含），0表示不限
+     */
+    private long startTimeFrom;
+    /**
+     * 开始时间上限（不包含），0表示不限
+     */
+    private long startTimeTo;
+    /**
+     * 从该id之后开始查询，0表示从头开始。按id降序时查询比该id小的记录
+     */
+    private int afterId;
+    /**
+     * 是否按id降序，即新记录在前
+     */
+    private boolean descending;
+    /**
+     * 跳过的记录数
+     */
+    private int offset;
+    /**
+     * 最多返回的记录数，0表示不限
+     */
+    private int limit;
+    /**
+     * 查询的字段，见DownloadStore.COLUMN_*，为空时查询所有字段，id总是会被查询
+     */
+    private String[] columns;
+
+    public int[] getStatuses() {
+        return statuses;
+    }
+
+    public long getStartTimeFrom() {
+        return startTimeFrom;
+    }
+
+    public long getStartTimeTo() {
+        return startTimeTo;
+    }
+
+    public int getAfterId() {
+        return afterId;
+    }
+
+    public boolean isDescending() {
+        return descending;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public String[] getColumns() {
+        return columns;
+    }
+
+    public DownloadQuery(Builder builder) {
+        statuses = builder.statuses;
+        startTimeFrom = builder.startTimeFrom;
+        startTimeTo = builder.startTimeTo;
+        afterId = builder.afterId;
+        descending = builder.descending;
+        offset = builder.offset;
+        limit = builder.limit;
+        columns = builder.columns;
+    }
+
+    /**
+     * 下一页的查询条件，从本页最后一条记录之后继续，比offset翻页更快
+     *
+     * @param lastId 本页最后一条记录的id
+     * @return 查询条件
+     */
+    public DownloadQuery next(int lastId) {
+        return new Builder(this).afterId(lastId).offset(0).build();
+    }
+
+    /**
+     * 查询条件Builder
+     */
+    public static class Builder {
+        private int[] statuses;
+        private long startTimeFrom;
+        private long startTimeTo;
+        private int afterId;
+        private boolean descending;
+        private int offset;
+        private int limit;
+        private String[] columns;
+
+        public Builder() {
+        }
+
+        public Builder(DownloadQuery query) {
+            statuses = query.statuses;
+            startTimeFrom = query.startTimeFrom;
+            startTimeTo = query.startTimeTo;
+            afterId = query.afterId;
+            descending = query.descending;
+            offset = query.offset;
+            limit = query.limit;
+            columns = query.columns;
+        }
+
+        /**
+         * 只查询这些状态的记录，见{@link DownloadConst.Status}
+         *
+         * @param statuses 状态
+         * @return Builder
+         */
+        public Builder status(int... statuses) {
+            this.statuses = statuses;
+            return this;
+        }
+
+        /**
+         * 只查询开始时间在该范围内的记录
+         *
+         * @param from 下限（包含），毫秒，0表示不限
+         * @param to   上限（不包含），毫秒，0表示不限
+         * @return Builder
+         */
+        public Builder startTime(long from, long to) {
+            this.startTimeFrom = Math.max(0, from);
+            this.startTimeTo = Math.max(0, to);
+            return this;
+        }
+
+        public Builder afterId(int afterId) {
+            this.afterId = Math.max(0, afterId);
+            return this;
+        }
+
+        public Builder descending(boolean descending) {
+            this.descending = descending;
+            return this;
+        }
+
+        public Builder offset(int offset) {
+            this.offset = Math.max(0, offset);
+            return this;
+        }
+
+        public Builder limit(int limit) {
+            this.limit = Math.max(0, limit);
+            return this;
+        }
+
+        /**
+         * 只查询这些字段，未查询的字段为默认值
+         *
+         * @param columns 字段名
+         * @return Builder
+         */
+        public Builder columns(String... columns) {
+            this.columns = columns;
+            return this;
+        }
+
+        public DownloadQuery build() {
+            return new DownloadQuery(this);
+        }
+    }
+}
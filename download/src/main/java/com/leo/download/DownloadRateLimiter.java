@@ -0,0 +1,143 @@
+package com.leo.download;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 令牌桶限速，按读取的字节数扣除令牌，令牌不足时阻塞当前下载线程。速度可在下载过程中修改
+ */
+public class DownloadRateLimiter {
+    /**
+     * 令牌桶容量，允许的突发时长，纳秒
+     */
+    private static final long BURST = TimeUnit.MILLISECONDS.toNanos(100);
+    /**
+     * 系统时钟
+     */
+    static final Ticker SYSTEM_TICKER = new Ticker() {
+        @Override
+        public long nanoTime() {
+            return System.nanoTime();
+        }
+
+        @Override
+        public void sleep(long nanos) throws InterruptedException {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        }
+    };
+
+    /**
+     * 时钟
+     */
+    private final Ticker mTicker;
+    /**
+     * 每秒最多下载的字节数，0表示不限速
+     */
+    private volatile long mBytesPerSecond;
+    /**
+     * 令牌恢复到可用的时间点，纳秒
+     */
+    private long mNextFree;
+
+    /**
+     * 构造方法
+     *
+     * @param bytesPerSecond 每秒最多下载的字节数，0表示不限速
+     */
+    public DownloadRateLimiter(long bytesPerSecond) {
+        this(bytesPerSecond, SYSTEM_TICKER);
+    }
+
+    /**
+     * 构造方法
+     *
+     * @param bytesPerSecond 每秒最多下载的字节数，0表示不限速
+     * @param ticker         时钟，测试时可以替换
+     */
+    DownloadRateLimiter(long bytesPerSecond, Ticker ticker) {
+        mTicker = ticker;
+        setBytesPerSecond(bytesPerSecond);
+        mNextFree = ticker.nanoTime();
+    }
+
+    public long getBytesPerSecond() {
+        return mBytesPerSecond;
+    }
+
+    /**
+     * 修改速度，对之后读取的数据生效
+     *
+     * @param bytesPerSecond 每秒最多下载的字节数，0表示不限速
+     */
+    public void setBytesPerSecond(long bytesPerSecond) {
+        mBytesPerSecond = Math.max(0, bytesPerSecond);
+    }
+
+    /**
+     * 是否限速
+     *
+     * @return 是否限速
+     */
+    public boolean isLimited() {
+        return mBytesPerSecond > 0;
+    }
+
+    /**
+     * 扣除已读取字节数对应的令牌，令牌不足时等待
+     *
+     * @param bytes 已读取的字节数
+     * @throws InterruptedIOException 等待被中断
+     */
+    public void acquire(long bytes) throws InterruptedIOException {
+        long wait = reserve(bytes);
+        if (wait <= 0) {
+            return;
+        }
+        try {
+            mTicker.sleep(wait);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("rate limit interrupted");
+        }
+    }
+
+    /**
+     * 扣除令牌
+     *
+     * @param bytes 字节数
+     * @return 需要等待的时间，纳秒
+     */
+    private synchronized long reserve(long bytes) {
+        long rate = mBytesPerSecond;
+        long now = mTicker.nanoTime();
+        if (rate <= 0) {
+            mNextFree = now;
+            return 0;
+        }
+        if (mNextFree < now - BURST) {
+            mNextFree = now - BURST;
+        }
+        mNextFree += TimeUnit.SECONDS.toNanos(bytes) / rate;
+        return mNextFree - now;
+    }
+
+    /**
+     * 时钟，提供当前时间和等待
+     */
+    interface Ticker {
+        /**
+         * 当前时间
+         *
+         * @return 纳秒
+         */
+        long nanoTime();
+
+        /**
+         * 等待
+         *
+         * @param nanos 等待时长，纳秒
+         * @throws InterruptedException 等待被中断
+         */
+        void sleep(long nanos) throws InterruptedException;
+    }
+}
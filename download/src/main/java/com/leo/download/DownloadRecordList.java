@@ -0,0 +1,16 @@
+package com.leo.download;
+
+import java.io.Closeable;
+import java.util.AbstractList;
+
+/**
+ * 按需读取的下载记录列表，只在访问某一项时才读取该条记录，适合记录很多的列表页。
+ * 不再使用时需要关闭
+ */
+public abstract class DownloadRecordList extends AbstractList<DownloadInfo> implements Closeable {
+    /**
+     * 释放底层资源，关闭后不能再访问
+     */
+    @Override
+    public abstract void close();
+}
@@ -0,0 +1,218 @@
+package com.leo.download;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * 下载调度，限制同时下载的任务数，超出的任务按优先级排队
+ */
+public class DownloadScheduler {
+    /**
+     * 启动任务的回调
+     */
+    public interface Starter {
+        /**
+         * 开始下载
+         *
+         * @param info     下载信息
+         * @param listener 下载监听
+         */
+        void start(DownloadInfo info, DownloadListener listener);
+    }
+
+    /**
+     * 同时下载的最大任务数
+     */
+    private int mMaxConcurrent;
+    /**
+     * 正在下载的任务地址
+     */
+    private Set<String> mRunning;
+    /**
+     * 等待中的任务，优先级高的在前，同优先级先入先出
+     */
+    private PriorityQueue<PendingTask> mPending;
+    /**
+     * 入队序号
+     */
+    private long mSequence;
+    /**
+     * 启动任务的回调
+     */
+    private Starter mStarter;
+
+    /**
+     * 构造方法
+     *
+     * @param maxConcurrent 同时下载的最大任务数
+     * @param starter       启动任务的回调
+     */
+    public DownloadScheduler(int maxConcurrent, Starter starter) {
+        mMaxConcurrent = maxConcurrent;
+        mStarter = starter;
+        mRunning = new HashSet<>();
+        mPending = new PriorityQueue<>(11, new Comparator<PendingTask>() {
+            @Override
+            public int compare(PendingTask lhs, PendingTask rhs) {
+                if (lhs.info.getPriority() != rhs.info.getPriority()) {
+                    return rhs.info.getPriority() - lhs.info.getPriority();
+                }
+                return lhs.sequence < rhs.sequence ? -1 : (lhs.sequence == rhs.sequence ? 0 : 1);
+            }
+        });
+    }
+
+    /**
+     * 调度任务，有空闲名额时立即开始，否则进入等待队列
+     *
+     * @param info     下载信息
+     * @param listener 下载监听
+     * @return 是否已立即开始
+     */
+    public boolean schedule(DownloadInfo info, DownloadListener listener) {
+        synchronized (this) {
+            remove(info.getUrl());
+            if (mRunning.contains(info.getUrl()) || mRunning.size() >= mMaxConcurrent) {
+                mPending.add(new PendingTask(info, listener, mSequence++));
+                return false;
+            }
+            mRunning.add(info.getUrl());
+        }
+        mStarter.start(info, listener);
+        return true;
+    }
+
+    /**
+     * 批量调度任务，全部加入等待队列后按优先级开始，直到名额用完
+     *
+     * @param infos     下载信息列表
+     * @param listeners 与下载信息一一对应的下载监听
+     * @return 仍在等待的任务
+     */
+    public List<DownloadInfo> scheduleAll(List<DownloadInfo> infos, List<? extends DownloadListener> listeners) {
+        Set<String> urls = new HashSet<>();
+        for (DownloadInfo info : infos) {
+            urls.add(info.getUrl());
+        }
+        synchronized (this) {
+            Iterator<PendingTask> iterator = mPending.iterator();
+            while (iterator.hasNext()) {
+                if (urls.contains(iterator.next().info.getUrl())) {
+                    iterator.remove();
+                }
+            }
+            for (int i = 0; i < infos.size(); i++) {
+                mPending.add(new PendingTask(infos.get(i), listeners.get(i), mSequence++));
+            }
+        }
+        promote();
+        List<DownloadInfo> pending = new ArrayList<>();
+        synchronized (this) {
+            for (PendingTask task : mPending) {
+                if (urls.contains(task.info.getUrl())) {
+                    pending.add(task.info);
+                }
+            }
+        }
+        return pending;
+    }
+
+    /**
+     * 任务结束（完成、失败、暂停、取消）时调用，释放名额并开始下一个等待的任务
+     *
+     * @param url 下载地址
+     */
+    public void finish(String url) {
+        synchronized (this) {
+            mRunning.remove(url);
+        }
+        promote();
+    }
+
+    /**
+     * 从等待队列中移除任务
+     *
+     * @param url 下载地址
+     * @return 任务是否在等待队列中
+     */
+    public synchronized boolean remove(String url) {
+        Iterator<PendingTask> iterator = mPending.iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().info.getUrl().equals(url)) {
+                iterator.remove();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 任务是否在等待队列中
+     *
+     * @param url 下载地址
+     * @return 是否等待中
+     */
+    public synchronized boolean isPending(String url) {
+        for (PendingTask task : mPending) {
+            if (task.info.getUrl().equals(url)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 修改同时下载的最大任务数，名额增加时立即开始等待的任务
+     *
+     * @param maxConcurrent 同时下载的最大任务数
+     */
+    public void setMaxConcurrent(int maxConcurrent) {
+        synchronized (this) {
+            mMaxConcurrent = maxConcurrent;
+        }
+        promote();
+    }
+
+    /**
+     * 按优先级开始等待的任务，直到名额用完。同一地址的旧任务尚未结束时，新任务继续等待
+     */
+    private void promote() {
+        List<PendingTask> ready = new ArrayList<>();
+        synchronized (this) {
+            List<PendingTask> blocked = new ArrayList<>();
+            while (mRunning.size() < mMaxConcurrent && !mPending.isEmpty()) {
+                PendingTask task = mPending.poll();
+                if (mRunning.contains(task.info.getUrl())) {
+                    blocked.add(task);
+                    continue;
+                }
+                mRunning.add(task.info.getUrl());
+                ready.add(task);
+            }
+            mPending.addAll(blocked);
+        }
+        for (PendingTask task : ready) {
+            mStarter.start(task.info, task.listener);
+        }
+    }
+
+    /**
+     * 等待中的任务
+     */
+    private static class PendingTask {
+        private DownloadInfo info;
+        private DownloadListener listener;
+        private long sequence;
+
+        public PendingTask(DownloadInfo info, DownloadListener listener, long sequence) {
+            this.info = info;
+            this.listener = listener;
+            this.sequence = sequence;
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.leo.download;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 分段下载中的一个分段，区间为[start, end]
+ */
+public class DownloadSegment implements Serializable {
+    private static final long serialVersionUID = 1L;
+    /**
+     * 分段序号
+     */
+    private int index;
+    /**
+     * 起始位置
+     */
+    private long start;
+    /**
+     * 结束位置（包含）
+     */
+    private long end;
+    /**
+     * 下一个待写入的位置，由下载线程更新
+     */
+    private volatile long curr;
+    /**
+     * 已同步到存储的位置，保存到数据库用于续传
+     */
+    private volatile long checkpoint;
+
+    public DownloadSegment() {
+    }
+
+    public DownloadSegment(int index, long start, long end) {
+        this.index = index;
+        this.start = start;
+        this.end = end;
+        this.curr = start;
+        this.checkpoint = start;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public void setIndex(int index) {
+        this.index = index;
+    }
+
+    public long getStart() {
+        return start;
+    }
+
+    public void setStart(long start) {
+        this.start = start;
+    }
+
+    public long getEnd() {
+        return end;
+    }
+
+    public void setEnd(long end) {
+        this.end = end;
+    }
+
+    public long getCurr() {
+        return curr;
+    }
+
+    public void setCurr(long curr) {
+        this.curr = curr;
+    }
+
+    public long getCheckpoint() {
+        return checkpoint;
+    }
+
+    public void setCheckpoint(long checkpoint) {
+        this.checkpoint = checkpoint;
+    }
+
+    /**
+     * 已下载长度
+     *
+     * @return 长度
+     */
+    public long getDownloaded() {
+        return curr - start;
+    }
+
+    /**
+     * 是否已下载完成
+     *
+     * @return 是否完成
+     */
+    public boolean isFinished() {
+        return curr > end;
+    }
+
+    /**
+     * 复制分段列表，下载位置取已提交的位置，与数据库中保存的内容一致
+     *
+     * @param segments 分段列表
+     * @return 新的分段列表
+     */
+    static List<DownloadSegment> copyCheckpoints(List<DownloadSegment> segments) {
+        List<DownloadSegment> result = new ArrayList<>();
+        if (segments == null) {
+            return result;
+        }
+        for (DownloadSegment segment : segments) {
+            DownloadSegment copy = new DownloadSegment(segment.getIndex(), segment.getStart(), segment.getEnd());
+            copy.setCurr(segment.getCheckpoint());
+            copy.setCheckpoint(segment.getCheckpoint());
+            result.add(copy);
+        }
+        return result;
+    }
+}
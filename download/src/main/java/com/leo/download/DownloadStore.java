@@ -0,0 +1,178 @@
+package com.leo.download;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 下载记录存储，保存任务信息和分段进度。Android上由{@link DownloadDbHelper}实现，
+ * 其他平台可以使用{@link DownloadMemoryStore}、{@link DownloadFileStore}或自行用数据库实现
+ */
+public interface DownloadStore {
+    /**
+     * 任务记录的字段名，用于{@link #queryFirst}、{@link #query(String, String)}和{@link DownloadQuery.Builder#columns}
+     */
+    String COLUMN_ID = "id";
+    String COLUMN_URL = "url";
+    String COLUMN_DIR = "dir";
+    String COLUMN_NAME = "name";
+    String COLUMN_CURR = "curr_size";
+    String COLUMN_TOTAL = "total_size";
+    String COLUMN_TITLE = "title";
+    String COLUMN_DESC = "desc";
+    String COLUMN_STATUS = "status";
+    String COLUMN_START = "start_time";
+    String COLUMN_FINISH = "finish_time";
+    String COLUMN_RENAME = "rename";
+    String COLUMN_MIMETYPE = "mimetype";
+    String COLUMN_PRIORITY = "priority";
+    String COLUMN_MAX_SPEED = "max_speed";
+    String COLUMN_CHECKSUM_TYPE = "checksum_type";
+    String COLUMN_CHECKSUM = "checksum";
+    String COLUMN_ETAG = "etag";
+    String COLUMN_LAST_MODIFIED = "last_modified";
+
+    /**
+     * 查询第一个符合条件的任务
+     *
+     * @param key   字段名
+     * @param value 字段值
+     * @return 任务信息，不存在时返回null
+     */
+    DownloadInfo queryFirst(String key, String value);
+
+    /**
+     * 查询所有符合条件的任务
+     *
+     * @param key   字段名
+     * @param value 字段值
+     * @return 任务列表
+     */
+    List<DownloadInfo> query(String key, String value);
+
+    /**
+     * 查询所有任务
+     *
+     * @return 任务列表
+     */
+    List<DownloadInfo> queryAll();
+
+    /**
+     * 按条件查询任务
+     *
+     * @param query 查询条件
+     * @return 任务列表
+     */
+    List<DownloadInfo> query(DownloadQuery query);
+
+    /**
+     * 按条件统计任务数，忽略分页
+     *
+     * @param query 查询条件
+     * @return 任务数
+     */
+    int count(DownloadQuery query);
+
+    /**
+     * 按条件查询任务，返回按需读取的列表，使用后需要关闭
+     *
+     * @param query 查询条件
+     * @return 任务列表
+     */
+    DownloadRecordList queryLazy(DownloadQuery query);
+
+    /**
+     * 按下载地址批量查询任务
+     *
+     * @param urls 下载地址列表
+     * @return 下载地址到任务的映射，不存在的地址不包含在内
+     */
+    Map<String, DownloadInfo> queryByUrls(List<String> urls);
+
+    /**
+     * 插入任务，同一下载地址的旧记录被替换
+     *
+     * @param info 任务信息
+     * @return 任务id
+     */
+    int insert(DownloadInfo info);
+
+    /**
+     * 批量插入任务，在一个事务中完成，同一下载地址的旧记录被替换
+     *
+     * @param infos 任务列表，插入后设置各自的id
+     */
+    void insertAll(List<DownloadInfo> infos);
+
+    /**
+     * 更新任务
+     *
+     * @param info 任务信息
+     */
+    void update(DownloadInfo info);
+
+    /**
+     * 按id删除任务
+     *
+     * @param id 任务id
+     */
+    void delete(int id);
+
+    /**
+     * 按下载地址删除任务
+     *
+     * @param url 下载地址
+     */
+    void delete(String url);
+
+    /**
+     * 更新任务状态
+     *
+     * @param status 状态
+     * @param url    下载地址
+     */
+    void updateStatus(int status, String url);
+
+    /**
+     * 等待之前的写入全部完成
+     *
+     * @return 记录是否都已保存，有写入失败后被丢弃时返回false
+     */
+    boolean flush();
+
+    /**
+     * 查询任务的分段
+     *
+     * @param id 任务id
+     * @return 分段列表
+     */
+    List<DownloadSegment> querySegments(int id);
+
+    /**
+     * 批量查询任务的分段
+     *
+     * @param ids 任务id列表
+     * @return 任务id到分段列表的映射，没有分段的任务为空列表
+     */
+    Map<Integer, List<DownloadSegment>> querySegments(List<Integer> ids);
+
+    /**
+     * 用任务当前的分段替换已保存的分段
+     *
+     * @param info 任务信息
+     */
+    void replaceSegments(DownloadInfo info);
+
+    /**
+     * 更新任务各分段的下载位置，非分段任务忽略
+     *
+     * @param info 任务信息
+     */
+    void updateSegments(DownloadInfo info);
+
+    /**
+     * 删除任务的分段
+     *
+     * @param id 任务id
+     */
+    void deleteSegments(int id);
+}
@@ -1,28 +1,35 @@
 package com.leo.download;
 
-import android.os.Build;
-import android.os.Environment;
-import android.os.Handler;
-import android.os.Looper;
-import android.os.StatFs;
-import android.text.TextUtils;
-import android.util.Log;
-
-import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.RandomAccessFile;
 import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
 import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import okhttp3.Call;
 import okhttp3.Callback;
+import okhttp3.Connection;
+import okhttp3.Interceptor;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.Response;
+import okio.BufferedSource;
 
 /**
  * 下载任务
@@ -30,142 +37,1708 @@ import okhttp3.Response;
 public class DownloadTask {
 
     /**
-     * 内部存储路径
+     * 断点保存监听
      */
-    private static final String INTERNAL_DIR = "/data/data/";
+    public interface CheckpointListener {
+        /**
+         * 文件数据已同步到存储，可以保存断点，在下载线程中调用
+         *
+         * @param info 下载信息，currSize和各分段的checkpoint为已同步的位置
+         */
+        void onCheckpoint(DownloadInfo info);
+    }
+
+    /**
+     * 最小读写粒度，与Okio分段大小一致
+     */
+    private static final int MIN_BUFFER_SIZE = 8 * 1024;
+    /**
+     * 限速时单次读取的最小字节数
+     */
+    private static final int MIN_READ_SIZE = 1024;
+    /**
+     * 所有已开始的任务，分段下载时一个任务对应多个请求
+     */
+    private Map<String, List<Call>> mCallMap;
+    /**
+     * 正在下载的任务信息
+     */
+    private Map<String, DownloadInfo> mInfoMap;
+    /**
+     * 正在下载的任务的限速
+     */
+    private Map<String, DownloadRateLimiter> mLimiterMap;
+    /**
+     * 未能预分配空间的任务预留的剩余空间，检查空间时扣除其他任务的预留，避免同时开始的任务都通过检查
+     */
+    private Map<String, AtomicLong> mReservedMap;
+    /**
+     * 单连接下载的文件校验，暂停后保留，续传时从已计算的位置继续
+     */
+    private Map<String, DownloadDigest> mDigestMap;
+    /**
+     * 正在下载的任务的监听组，同一地址的重复请求共享一次下载
+     */
+    private ConcurrentHashMap<String, DownloadListenerGroup> mListenerMap;
+    /**
+     * 每个地址最近一次下载的指标
+     */
+    private Map<String, DownloadMetricsRecorder> mMetricsMap;
+    /**
+     * 已被新的下载替换或已取消的指标汇总
+     */
+    private DownloadMetrics mRetiredMetrics;
+    /**
+     * 请求使用过的连接，用于统计连接复用
+     */
+    private Map<Connection, Boolean> mConnections;
+    /**
+     * 统计请求和连接复用的拦截器
+     */
+    private Interceptor mMetricsInterceptor;
+    /**
+     * 指标接收方
+     */
+    private volatile DownloadMetricsSink mMetricsSink;
+    /**
+     * 等待重试和重新连接的线程池，空闲时不保留线程
+     */
+    private ScheduledThreadPoolExecutor mRetryExecutor;
+    /**
+     * 重试等待时间的随机抖动
+     */
+    private Random mRandom;
+    /**
+     * 全局限速，所有任务共享
+     */
+    private DownloadRateLimiter mGlobalLimiter;
+    /**
+     * 下载配置
+     */
+    private DownloadConfig mConfig;
+    /**
+     * 平台适配
+     */
+    private DownloadPlatform mPlatform;
+    /**
+     * 回调执行器，默认使用平台的回调方式
+     */
+    private volatile Executor mCallbackExecutor;
+    /**
+     * 发起请求使用的OkHttpClient
+     */
+    private volatile OkHttpClient mClient;
+    /**
+     * 断点保存监听
+     */
+    private volatile CheckpointListener mCheckpointListener;
+
+    /**
+     * 构造方法，使用当前平台的适配
+     */
+    public DownloadTask() {
+        this(new OkHttpClient());
+    }
+
+    /**
+     * 构造方法，使用当前平台的适配
+     *
+     * @param client 发起请求使用的OkHttpClient，由多个任务共享
+     */
+    public DownloadTask(OkHttpClient client) {
+        this(client, DownloadPlatform.get());
+    }
+
+    /**
+     * 构造方法，使用指定的平台适配，可在普通JVM上使用
+     *
+     * @param client   发起请求使用的OkHttpClient，由多个任务共享
+     * @param platform 平台适配
+     */
+    public DownloadTask(OkHttpClient client, DownloadPlatform platform) {
+        mPlatform = platform;
+        mCallMap = new ConcurrentHashMap<>();
+        mInfoMap = new ConcurrentHashMap<>();
+        mLimiterMap = new ConcurrentHashMap<>();
+        mDigestMap = new ConcurrentHashMap<>();
+        mReservedMap = new HashMap<>();
+        mListenerMap = new ConcurrentHashMap<>();
+        mMetricsMap = new ConcurrentHashMap<>();
+        mRetiredMetrics = new DownloadMetrics(null);
+        mConnections = new WeakHashMap<>();
+        mMetricsInterceptor = new MetricsInterceptor();
+        mClient = withMetrics(client);
+        mRetryExecutor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "DownloadTask Retry");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        mRetryExecutor.setKeepAliveTime(60, TimeUnit.SECONDS);
+        mRetryExecutor.allowCoreThreadTimeOut(true);
+        mRandom = new Random();
+        mGlobalLimiter = new DownloadRateLimiter(0);
+        mCallbackExecutor = platform.getCallbackExecutor();
+        mConfig = new DownloadConfig.Builder().build();
+    }
+
+    /**
+     * 设置下载配置
+     *
+     * @param config 下载配置
+     */
+    public void setConfig(DownloadConfig config) {
+        mConfig = config;
+        setCallbackExecutor(config.getCallbackExecutor());
+        mGlobalLimiter.setBytesPerSecond(config.getMaxBytesPerSecond());
+    }
+
+    /**
+     * 设置回调执行器，对之后的回调生效
+     *
+     * @param executor 回调执行器，见{@link DownloadExecutors}，为null时使用平台的回调方式
+     */
+    public void setCallbackExecutor(Executor executor) {
+        mCallbackExecutor = executor != null ? executor : mPlatform.getCallbackExecutor();
+    }
+
+    /**
+     * 修改全局限速，正在下载的任务立即生效
+     *
+     * @param bytesPerSecond 每秒最多下载的字节数，0表示不限速
+     */
+    public void setMaxBytesPerSecond(long bytesPerSecond) {
+        mGlobalLimiter.setBytesPerSecond(bytesPerSecond);
+    }
+
+    /**
+     * 修改任务限速，正在下载时立即生效
+     *
+     * @param url            下载地址
+     * @param bytesPerSecond 每秒最多下载的字节数，0表示不限速
+     */
+    public void setMaxBytesPerSecond(String url, long bytesPerSecond) {
+        DownloadInfo info = mInfoMap.get(url);
+        if (info != null) {
+            info.setMaxBytesPerSecond(bytesPerSecond);
+        }
+        DownloadRateLimiter limiter = mLimiterMap.get(url);
+        if (limiter != null) {
+            limiter.setBytesPerSecond(bytesPerSecond);
+        }
+    }
+
+    /**
+     * 设置断点保存监听
+     *
+     * @param listener 监听
+     */
+    public void setCheckpointListener(CheckpointListener listener) {
+        mCheckpointListener = listener;
+    }
+
+    /**
+     * 设置OkHttpClient，对之后开始的任务生效
+     *
+     * @param client OkHttpClient
+     */
+    public void setClient(OkHttpClient client) {
+        mClient = withMetrics(client);
+    }
+
+    /**
+     * 设置指标接收方，按进度回调的频率和下载结束时推送指标快照
+     *
+     * @param sink 指标接收方，为null时不推送
+     */
+    public void setMetricsSink(DownloadMetricsSink sink) {
+        mMetricsSink = sink;
+    }
+
+    /**
+     * 某个地址最近一次下载的指标快照
+     *
+     * @param url 下载地址
+     * @return 指标快照，没有下载过时返回null
+     */
+    public DownloadMetrics getMetrics(String url) {
+        DownloadMetricsRecorder metrics = mMetricsMap.get(url);
+        return metrics != null ? metrics.snapshot() : null;
+    }
+
+    /**
+     * 所有下载的汇总指标快照。写入字节数、耗时、当前速度等为各次下载之和，
+     * 平均速度为单个下载的平均速度，首字节时间为各次下载的平均值
+     *
+     * @return 指标快照
+     */
+    public DownloadMetrics getMetrics() {
+        DownloadMetrics total = new DownloadMetrics(null);
+        synchronized (mRetiredMetrics) {
+            total.add(mRetiredMetrics);
+        }
+        boolean finished = true;
+        for (DownloadMetricsRecorder metrics : mMetricsMap.values()) {
+            DownloadMetrics snapshot = metrics.snapshot();
+            total.add(snapshot);
+            finished &= snapshot.isFinished();
+        }
+        total.setFinished(finished);
+        return total;
+    }
+
+    /**
+     * 开始任务
+     *
+     * @param url      下载地址
+     * @param path     保存路径
+     * @param rename   是否重命名
+     * @param listener 下载监听
+     */
+    public void start(String url, String path, boolean rename, DownloadListener listener) {
+        start(new DownloadInfo.Builder()
+                .url(url)
+                .path(path)
+                .rename(rename)
+                .build(), listener);
+    }
+
     /**
-     * 所有已开始的任务
+     * 开始任务，已有分段信息时按分段续传，否则在服务器支持断点续传时按配置自动分段。
+     * 同一地址正在下载时不再发起请求，监听加入正在进行的下载
+     *
+     * @param info     下载信息
+     * @param callback 下载监听
      */
-    private Map<String, Call> mCallMap;
+    public void start(final DownloadInfo info, DownloadListener callback) {
+        final String url = info.getUrl();
+        if (info.hasChecksum() && !isChecksumSupported(info.getChecksumType())) {
+            sendErrorCallback(withCallbackExecutor(callback, info.getCallbackExecutor()), -1,
+                    new DownloadError(DownloadConst.Error.FAIL, "unsupported checksum " + info.getChecksumType()));
+            return;
+        }
+        DownloadListenerGroup listener = new DownloadListenerGroup(callback);
+        listener.setCallbackExecutor(info.getCallbackExecutor());
+        if (mListenerMap.putIfAbsent(url, listener) != null) {
+            attach(url, callback);
+            return;
+        }
+        DownloadMetricsRecorder metrics = newMetrics(url);
+        mInfoMap.put(url, info);
+        DownloadRateLimiter limiter = new DownloadRateLimiter(info.getMaxBytesPerSecond());
+        mLimiterMap.put(url, limiter);
+        if (info.isSegmented()) {
+            startSegments(info, info.getTotalSize(), true, limiter, metrics, listener);
+            return;
+        }
+        mCallMap.put(url, new CopyOnWriteArrayList<Call>());
+        request(info, limiter, metrics, listener, 0);
+    }
+
+    /**
+     * 单连接请求，从已写入的位置续传。网络异常时按配置等待后重试
+     *
+     * @param info     下载信息
+     * @param limiter  任务限速
+     * @param metrics  下载指标
+     * @param listener 下载监听
+     * @param retries  已连续重试的次数
+     */
+    private void request(final DownloadInfo info, final DownloadRateLimiter limiter,
+                         final DownloadMetricsRecorder metrics, final DownloadListener listener, final int retries) {
+        final String url = info.getUrl();
+        final String path = info.getDir() + File.separator + info.getName();
+        final boolean rename = info.isRename();
+        final File localFile = new File(path);
+        final long range = getResumeOffset(info, localFile);
+        Request.Builder builder = new Request.Builder();
+        builder.url(url);
+        builder.tag(url);
+        builder.addHeader("Connection", "Keep-Alive");
+        if (range > 0) {
+            builder.addHeader("Range", "bytes=" + range + "-");
+            addIfRange(builder, info);
+        }
+        Call call = mClient.newCall(builder.build());
+        if (!addCall(url, listener, call)) {
+            return;
+        }
+        call.enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                if (call.isCanceled()) {
+                    mPlatform.log("DownloadTask", "Call canceled");
+                    return;
+                }
+                if (retry(url, listener, metrics, retries + 1, new Runnable() {
+                    @Override
+                    public void run() {
+                        request(info, limiter, metrics, listener, retries + 1);
+                    }
+                })) {
+                    return;
+                }
+                mPlatform.log("DownloadTask", "Request failed: " + e);
+                release(url);
+                sendErrorCallback(listener, -1, new DownloadError(DownloadConst.Error.FAIL, e.getMessage()));
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) throws IOException {
+                if (response == null) {
+                    release(url);
+                    sendErrorCallback(listener, -1, new DownloadError(DownloadConst.Error.RESP_NULL, "empty reponse"));
+                    return;
+                }
+                metrics.onResponse();
+                if (!response.isSuccessful() && !response.isRedirect()) {
+                    response.body().close();
+                    if (isRetryable(response.code()) && retry(url, listener, metrics, retries + 1, new Runnable() {
+                        @Override
+                        public void run() {
+                            request(info, limiter, metrics, listener, retries + 1);
+                        }
+                    })) {
+                        return;
+                    }
+                    release(url);
+                    sendErrorCallback(listener, -1, new DownloadError(DownloadConst.Error.FAIL, response.message()));
+                    return;
+                }
+
+                //续传时服务器返回200说明文件已变化或不支持断点续传，从头重新下载
+                long fileLength = response.code() == 206 ? range : 0;
+                long totalLength = 0L;
+                if (response.header("Content-Length") != null) {
+                    totalLength = Long.parseLong(response.header("Content-Length"));
+                }
+                if (fileLength == 0) {
+                    saveValidators(info, response);
+                    info.setCurrSize(0);
+                }
+                int segmentCount = getSegmentCount(info);
+                if (fileLength == 0 && retries == 0 && segmentCount > 1 && isSupportRanges(response)
+                        && totalLength >= segmentCount * mConfig.getMinSegmentSize()) {
+                    response.body().close();
+                    if (call.isCanceled()) {
+                        return;
+                    }
+                    info.setTotalSize(totalLength);
+                    info.setSegments(createSegments(totalLength, segmentCount));
+                    sendStartCallback(listener, -1, totalLength);
+                    startSegments(info, totalLength, false, limiter, metrics, listener);
+                    return;
+                }
+                if (fileLength != 0) {
+                    totalLength += fileLength;
+                }
+                if (retries > 0) {
+                    //重试时只在服务器返回完整文件时通知，已写入部分数据时从头开始
+                    if (fileLength == 0 && range > 0) {
+                        sendRestartCallback(listener, -1, 0, totalLength);
+                    } else if (fileLength == 0) {
+                        sendStartCallback(listener, -1, totalLength);
+                    }
+                } else if (fileLength == 0) {
+                    sendStartCallback(listener, -1, totalLength);
+                } else {
+                    sendRestartCallback(listener, -1, fileLength, totalLength);
+                }
+                DownloadWriter out = null;
+                DownloadProcessor processor = null;
+                long currSize = fileLength;
+                try {
+                    BufferedSource source = response.body().source();
+                    long len;
+                    BufferSizer sizer = new BufferSizer();
+                    out = new DownloadWriter(path, currSize, sizer.getSize(), mConfig.getSyncBytes());
+                    if (currSize < localFile.length()) {
+                        out.truncate();
+                    }
+                    if (fileLength == 0) {
+                        info.setTotalSize(totalLength);
+                    }
+                    //预分配后文件长度即为总大小，进度以写入位置为准
+                    if (!allocate(url, path, totalLength, totalLength - fileLength, listener)) {
+                        return;
+                    }
+                    AtomicLong reserved = getReserved(url);
+                    if (reserved == null && totalLength > 0 && mConfig.isMappedWrite()) {
+                        out.map(totalLength);
+                    }
+                    DownloadDigest digest = prepareDigest(info, localFile, currSize);
+                    out.setDigest(digest);
+                    processor = prepareProcessor(info, localFile, currSize);
+                    if (processor != null) {
+                        out.setProcessor(processor);
+                    }
+                    out.setSyncListener(new DownloadWriter.SyncListener() {
+                        @Override
+                        public void onSync(long position) {
+                            info.setCurrSize(position);
+                            sendCheckpoint(info);
+                        }
+                    });
+                    ProgressThrottle throttle = new ProgressThrottle();
+                    StallWatchdog watchdog = new StallWatchdog();
+                    while ((len = out.transferFrom(source, getReadSize(sizer, limiter))) != -1) {
+                        out.setBufferSize(sizer.onRead(len));
+                        long limitStart = System.nanoTime();
+                        limit(limiter, len);
+                        metrics.onBytes(len);
+                        watchdog.onRead(len, System.nanoTime() - limitStart, metrics);
+                        if (reserved != null) {
+                            reserved.addAndGet(-len);
+                        }
+                        currSize += len;
+                        if (throttle.shouldSend(currSize)) {
+                            sendProgressCallback(listener, -1, currSize, totalLength);
+                            sendMetrics(metrics);
+                        }
+                    }
+                    out.close();
+                    out = null;
+                    release(url);
+                    if (totalLength == 0) {
+//                        if (localFile.length() != 0) {
+//                            sendCompleteCallback(listener, -1, localFile.getParent(), localFile.getName());
+//                        } else {
+                            sendErrorCallback(listener, -1, new DownloadError(DownloadConst.Error.FILE_INCOMPLETE, "file is incomplete"));
+//                        }
+                    } else {
+                        if (currSize == totalLength) {
+                            if (digest != null) {
+                                mDigestMap.remove(url);
+                                if (!digest.matches(info.getChecksum())) {
+                                    sendChecksumMismatch(info, localFile, listener);
+                                    return;
+                                }
+                            }
+                            if (processor != null) {
+                                finishProcessor(processor);
+                                processor = null;
+                            }
+                            File resultFile = localFile;
+                            if (rename) {
+                                resultFile = renameFile(localFile, response);
+                            }
+                            sendProgressCallback(listener, -1, currSize, totalLength);
+                            sendCompleteCallback(listener, -1, resultFile.getParent(), resultFile.getName());
+                        } else {
+                            sendErrorCallback(listener, -1, new DownloadError(DownloadConst.Error.FILE_INCOMPLETE, "file is incomplete"));
+                        }
+                    }
+                } catch (IOException e) {
+                    if (call.isCanceled()) {
+                        mPlatform.log("DownloadTask", "Call canceled");
+                        return;
+                    }
+                    //先写入已读取的数据，重试从写入的位置续传
+                    if (out != null) {
+                        closeWriter(out);
+                        out = null;
+                    }
+                    if (processor != null) {
+                        processor.close();
+                        processor = null;
+                    }
+                    if (e instanceof DownloadWriter.ProcessException) {
+                        release(url);
+                        sendErrorCallback(listener, -1, new DownloadError(DownloadConst.Error.PROCESS_FAILED, e.getMessage()));
+                        return;
+                    }
+                    if (e instanceof StallException) {
+                        reconnect(url, listener, new Runnable() {
+                            @Override
+                            public void run() {
+                                request(info, limiter, metrics, listener, 0);
+                            }
+                        });
+                        return;
+                    }
+                    final int next = currSize > fileLength ? 1 : retries + 1;
+                    if (retry(url, listener, metrics, next, new Runnable() {
+                        @Override
+                        public void run() {
+                            request(info, limiter, metrics, listener, next);
+                        }
+                    })) {
+                        return;
+                    }
+                    release(url);
+                    sendErrorCallback(listener, -1, new DownloadError(DownloadConst.Error.IO_EXCEPTION, e.getMessage()));
+                } finally {
+                    response.body().close();
+                    if (out != null) {
+                        closeWriter(out);
+                    }
+                    if (processor != null) {
+                        processor.close();
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * 加入正在进行的下载，之后的回调同时分发给该监听
+     *
+     * @param url      下载地址
+     * @param listener 下载监听
+     * @return 是否正在下载，未在下载时不加入
+     */
+    public boolean attach(String url, DownloadListener listener) {
+        DownloadListenerGroup group = mListenerMap.get(url);
+        if (group == null) {
+            return false;
+        }
+        group.add(listener);
+        return true;
+    }
+
+    /**
+     * 单连接续传的起始位置。已保存到存储或已知总大小（可能已预分配空间）的任务从最后一次同步到存储的位置继续，
+     * 文件中超出该位置的数据可能未完整写入，会被覆盖。需要校验且有可继续的摘要时从摘要的位置继续
+     *
+     * @param info      下载信息
+     * @param localFile 本地文件
+     * @return 起始位置
+     */
+    private long getResumeOffset(DownloadInfo info, File localFile) {
+        long fileLength = localFile.length();
+        DownloadDigest digest = mDigestMap.get(info.getUrl());
+        if (info.hasChecksum() && digest != null && digest.getPosition() <= fileLength) {
+            //同一进程内暂停后续传，文件已写入到摘要的位置，可以直接继续计算
+            return digest.getPosition();
+        }
+        if (info.getId() > 0 || info.getTotalSize() > 0) {
+            return Math.min(info.getCurrSize(), fileLength);
+        }
+        return fileLength;
+    }
+
+    /**
+     * 通知保存断点，任务已结束时不再通知
+     *
+     * @param info 下载信息
+     */
+    private void sendCheckpoint(DownloadInfo info) {
+        CheckpointListener listener = mCheckpointListener;
+        if (listener != null && mInfoMap.get(info.getUrl()) == info) {
+            listener.onCheckpoint(info);
+        }
+    }
+
+    /**
+     * 按分段并行下载，每个分段使用一个Range请求写入同一文件的对应位置
+     *
+     * @param info        下载信息
+     * @param totalLength 文件总大小
+     * @param resume      是否为续传
+     * @param limiter     任务限速
+     * @param metrics     下载指标
+     * @param listener    下载监听
+     */
+    private void startSegments(DownloadInfo info, long totalLength, boolean resume, DownloadRateLimiter limiter,
+                               DownloadMetricsRecorder metrics, DownloadListener listener) {
+        String url = info.getUrl();
+        String path = info.getDir() + File.separator + info.getName();
+        List<DownloadSegment> segments = info.getSegments();
+        List<DownloadSegment> pending = new ArrayList<>();
+        for (DownloadSegment segment : segments) {
+            if (!segment.isFinished()) {
+                pending.add(segment);
+            }
+        }
+        if (resume) {
+            sendRestartCallback(listener, -1, getDownloaded(segments), totalLength);
+        }
+        if (!allocate(url, path, totalLength, totalLength - getDownloaded(segments), listener)) {
+            return;
+        }
+        if (pending.isEmpty()) {
+            release(url);
+            File localFile = new File(path);
+            if (!verifyFile(info, localFile, listener) || !processFile(info, localFile, listener)) {
+                return;
+            }
+            sendCompleteCallback(listener, -1, localFile.getParent(), localFile.getName());
+            return;
+        }
+
+        mCallMap.put(url, new CopyOnWriteArrayList<Call>());
+        SegmentState state = new SegmentState(info, totalLength, limiter, metrics, listener, pending.size());
+        for (DownloadSegment segment : pending) {
+            requestSegment(state, segment, 0);
+        }
+    }
+
+    /**
+     * 请求一个分段，从分段已写入的位置续传。网络异常时只重试该分段
+     *
+     * @param state   各分段共享的状态
+     * @param segment 分段
+     * @param retries 该分段已连续重试的次数
+     */
+    private void requestSegment(final SegmentState state, final DownloadSegment segment, final int retries) {
+        final DownloadInfo info = state.mInfo;
+        final String url = info.getUrl();
+        final String path = info.getDir() + File.separator + info.getName();
+        final DownloadListener listener = state.mListener;
+        final DownloadMetricsRecorder metrics = state.mMetrics;
+        final AtomicBoolean failed = state.mFailed;
+        Request.Builder builder = new Request.Builder()
+                .url(url)
+                .tag(url)
+                .addHeader("Connection", "Keep-Alive")
+                .addHeader("Range", "bytes=" + segment.getCurr() + "-" + segment.getEnd());
+        addIfRange(builder, info);
+        Call call = mClient.newCall(builder.build());
+        if (!addCall(url, listener, call)) {
+            return;
+        }
+        call.enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                if (call.isCanceled()) {
+                    mPlatform.log("DownloadTask", "Call canceled");
+                    return;
+                }
+                if (retrySegment(state, segment, retries + 1)) {
+                    return;
+                }
+                mPlatform.log("DownloadTask", "Segment request failed: " + e);
+                failSegments(url, failed, listener, new DownloadError(DownloadConst.Error.FAIL, e.getMessage()));
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) throws IOException {
+                if (response == null) {
+                    failSegments(url, failed, listener, new DownloadError(DownloadConst.Error.RESP_NULL, "empty reponse"));
+                    return;
+                }
+                metrics.onResponse();
+                if (response.code() == 200) {
+                    response.body().close();
+                    restartSegments(info, failed, listener);
+                    return;
+                }
+                if (response.code() != 206) {
+                    response.body().close();
+                    if (isRetryable(response.code()) && retrySegment(state, segment, retries + 1)) {
+                        return;
+                    }
+                    failSegments(url, failed, listener, new DownloadError(DownloadConst.Error.FAIL, response.message()));
+                    return;
+                }
+                long start = segment.getCurr();
+                boolean stalled = false;
+                DownloadWriter out = null;
+                try {
+                    BufferedSource source = response.body().source();
+                    long len;
+                    BufferSizer sizer = new BufferSizer();
+                    out = new DownloadWriter(path, segment.getCurr(), sizer.getSize(), mConfig.getSyncBytes());
+                    AtomicLong reserved = getReserved(url);
+                    if (reserved == null && mConfig.isMappedWrite()) {
+                        out.map(segment.getEnd() + 1);
+                    }
+                    out.setSyncListener(new DownloadWriter.SyncListener() {
+                        @Override
+                        public void onSync(long position) {
+                            segment.setCheckpoint(position);
+                            sendCheckpoint(info);
+                        }
+                    });
+                    StallWatchdog watchdog = new StallWatchdog();
+                    while (out.getPosition() <= segment.getEnd()
+                            && (len = out.transferFrom(source,
+                            Math.min(getReadSize(sizer, state.mLimiter), segment.getEnd() - out.getPosition() + 1))) != -1) {
+                        out.setBufferSize(sizer.onRead(len));
+                        long limitStart = System.nanoTime();
+                        limit(state.mLimiter, len);
+                        metrics.onBytes(len);
+                        watchdog.onRead(len, System.nanoTime() - limitStart, metrics);
+                        if (reserved != null) {
+                            reserved.addAndGet(-len);
+                        }
+                        segment.setCurr(out.getFlushedPosition());
+                        long currSize = getDownloaded(info.getSegments());
+                        if (state.mThrottle.shouldSend(currSize)) {
+                            sendProgressCallback(listener, -1, currSize, state.mTotalLength);
+                            sendMetrics(metrics);
+                        }
+                    }
+                    out.close();
+                    segment.setCurr(out.getFlushedPosition());
+                    out = null;
+                } catch (IOException e) {
+                    if (call.isCanceled()) {
+                        mPlatform.log("DownloadTask", "Call canceled");
+                        return;
+                    }
+                    stalled = e instanceof StallException;
+                    mPlatform.log("DownloadTask", "Segment failed: " + e.getMessage());
+                } finally {
+                    response.body().close();
+                    if (out != null) {
+                        closeWriter(out);
+                        segment.setCurr(out.getFlushedPosition());
+                    }
+                }
+                if (!segment.isFinished()) {
+                    if (stalled) {
+                        if (!failed.get()) {
+                            reconnect(url, listener, new Runnable() {
+                                @Override
+                                public void run() {
+                                    requestSegment(state, segment, 0);
+                                }
+                            });
+                        }
+                        return;
+                    }
+                    //连接中断或数据不完整，有进展时重新计数
+                    if (retrySegment(state, segment, segment.getCurr() > start ? 1 : retries + 1)) {
+                        return;
+                    }
+                    failSegments(url, failed, listener, new DownloadError(DownloadConst.Error.FILE_INCOMPLETE, "file is incomplete"));
+                    return;
+                }
+                if (state.mRemaining.decrementAndGet() == 0 && !failed.get()) {
+                    release(url);
+                    File resultFile = new File(path);
+                    if (!verifyFile(info, resultFile, listener) || !processFile(info, resultFile, listener)) {
+                        return;
+                    }
+                    if (info.isRename()) {
+                        resultFile = renameFile(resultFile, response);
+                    }
+                    sendProgressCallback(listener, -1, state.mTotalLength, state.mTotalLength);
+                    sendCompleteCallback(listener, -1, resultFile.getParent(), resultFile.getName());
+                }
+            }
+        });
+    }
+
+    /**
+     * 按配置等待后重新请求分段
+     *
+     * @param state   各分段共享的状态
+     * @param segment 分段
+     * @param retries 本次是第几次连续重试
+     * @return 是否会重试
+     */
+    private boolean retrySegment(final SegmentState state, final DownloadSegment segment, final int retries) {
+        return !state.mFailed.get() && retry(state.mInfo.getUrl(), state.mListener, state.mMetrics, retries,
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        requestSegment(state, segment, retries);
+                    }
+                });
+    }
+
+    /**
+     * 一次分段下载中各分段共享的状态
+     */
+    private class SegmentState {
+        /**
+         * 下载信息
+         */
+        private final DownloadInfo mInfo;
+        /**
+         * 文件总大小
+         */
+        private final long mTotalLength;
+        /**
+         * 任务限速
+         */
+        private final DownloadRateLimiter mLimiter;
+        /**
+         * 下载指标
+         */
+        private final DownloadMetricsRecorder mMetrics;
+        /**
+         * 下载监听
+         */
+        private final DownloadListener mListener;
+        /**
+         * 未完成的分段数
+         */
+        private final AtomicInteger mRemaining;
+        /**
+         * 任务是否已结束
+         */
+        private final AtomicBoolean mFailed = new AtomicBoolean(false);
+        /**
+         * 各分段共用的进度回调节流
+         */
+        private final ProgressThrottle mThrottle = new ProgressThrottle();
+
+        public SegmentState(DownloadInfo info, long totalLength, DownloadRateLimiter limiter,
+                            DownloadMetricsRecorder metrics, DownloadListener listener, int pending) {
+            mInfo = info;
+            mTotalLength = totalLength;
+            mLimiter = limiter;
+            mMetrics = metrics;
+            mListener = listener;
+            mRemaining = new AtomicInteger(pending);
+        }
+    }
+
+    /**
+     * 网络异常时按配置等待后重试，等待时间随次数翻倍并加入随机抖动。
+     * 任务已暂停、取消或结束时不重试，等待期间暂停或取消的任务也不再发起请求
+     *
+     * @param url      下载地址
+     * @param listener 任务的监听，用于判断任务是否仍在进行
+     * @param metrics  下载指标
+     * @param retries  本次是第几次连续重试
+     * @param action   重新请求
+     * @return 是否会重试
+     */
+    private boolean retry(final String url, final DownloadListener listener, DownloadMetricsRecorder metrics,
+                          int retries, final Runnable action) {
+        if (retries > mConfig.getMaxRetries() || mListenerMap.get(url) != listener) {
+            return false;
+        }
+        metrics.onRetry();
+        long delay = getRetryDelay(retries);
+        mPlatform.log("DownloadTask", "Retry " + retries + " after " + delay + "ms");
+        schedule(url, listener, action, delay);
+        return true;
+    }
+
+    /**
+     * 连接速度过低时立即重新连接，不计入重试次数
+     *
+     * @param url      下载地址
+     * @param listener 任务的监听，用于判断任务是否仍在进行
+     * @param action   重新请求
+     */
+    private void reconnect(String url, DownloadListener listener, Runnable action) {
+        mPlatform.log("DownloadTask", "Stalled, reconnect");
+        schedule(url, listener, action, 0);
+    }
+
+    /**
+     * 等待后重新请求，任务已暂停或取消时不再请求
+     *
+     * @param url      下载地址
+     * @param listener 任务的监听，用于判断任务是否仍在进行
+     * @param action   重新请求
+     * @param delay    等待时间，毫秒
+     */
+    private void schedule(final String url, final DownloadListener listener, final Runnable action, long delay) {
+        mRetryExecutor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (mListenerMap.get(url) == listener) {
+                    action.run();
+                }
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 重试前的等待时间，在指数增长的时间的一半到全部之间随机，避免多个任务同时重试
+     *
+     * @param retries 第几次重试
+     * @return 等待时间，毫秒
+     */
+    private long getRetryDelay(int retries) {
+        long delay = Math.min(mConfig.getRetryDelay() << Math.min(retries - 1, 16), mConfig.getMaxRetryDelay());
+        return delay / 2 + (long) (mRandom.nextDouble() * (delay - delay / 2));
+    }
+
+    /**
+     * 响应码是否为可重试的临时错误
+     *
+     * @param code 响应码
+     * @return 是否可重试
+     */
+    private boolean isRetryable(int code) {
+        return code == 408 || code == 429 || code >= 500;
+    }
+
+    /**
+     * 记录任务的请求，用于暂停和取消。任务已结束时取消该请求
+     *
+     * @param url      下载地址
+     * @param listener 任务的监听，用于判断任务是否仍在进行
+     * @param call     请求
+     * @return 任务是否仍在进行
+     */
+    private boolean addCall(String url, DownloadListener listener, Call call) {
+        List<Call> calls = mCallMap.get(url);
+        if (calls == null) {
+            return false;
+        }
+        calls.add(call);
+        //暂停时先移除监听再取消请求，这里添加后再检查，请求不会被漏掉
+        if (mListenerMap.get(url) != listener) {
+            call.cancel();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 准备单连接下载的文件校验。没有可继续的摘要时，读取文件中已下载的部分重新计算
+     *
+     * @param info      下载信息
+     * @param localFile 本地文件
+     * @param position  开始写入的位置
+     * @return 文件校验，不需要校验时返回null
+     * @throws IOException 读取文件失败
+     */
+    private DownloadDigest prepareDigest(DownloadInfo info, File localFile, long position) throws IOException {
+        if (!info.hasChecksum()) {
+            return null;
+        }
+        DownloadDigest digest = mDigestMap.get(info.getUrl());
+        if (digest == null || digest.getPosition() != position) {
+            try {
+                digest = new DownloadDigest(info.getChecksumType());
+            } catch (NoSuchAlgorithmException e) {
+                throw new IOException(e.getMessage());
+            }
+            if (position > 0) {
+                digest.update(localFile, position);
+            }
+            mDigestMap.put(info.getUrl(), digest);
+        }
+        return digest;
+    }
+
+    /**
+     * 分段下载完成后计算整个文件的摘要，各分段乱序写入，无法边写边计算
+     *
+     * @param info      下载信息
+     * @param localFile 本地文件
+     * @param listener  下载监听
+     * @return 是否校验通过，不需要校验时返回true
+     */
+    private boolean verifyFile(DownloadInfo info, File localFile, DownloadListener listener) {
+        if (!info.hasChecksum()) {
+            return true;
+        }
+        try {
+            if (DownloadDigest.matches(localFile, info.getChecksumType(), info.getChecksum())) {
+                return true;
+            }
+        } catch (IOException | NoSuchAlgorithmException e) {
+            sendErrorCallback(listener, -1, new DownloadError(DownloadConst.Error.IO_EXCEPTION, e.getMessage()));
+            return false;
+        }
+        sendChecksumMismatch(info, localFile, listener);
+        return false;
+    }
+
+    /**
+     * 准备数据处理器，从处理器需要的位置读取文件中已下载的数据重放，之后的数据在写入时处理
+     *
+     * @param info      下载信息
+     * @param localFile 本地文件
+     * @param position  开始写入的位置
+     * @return 数据处理器，没有时返回null
+     * @throws IOException 读取文件或处理失败
+     */
+    private DownloadProcessor prepareProcessor(DownloadInfo info, File localFile, long position) throws IOException {
+        DownloadProcessor processor = info.getProcessor();
+        if (processor == null) {
+            return null;
+        }
+        long start;
+        try {
+            start = processor.start(position);
+        } catch (IOException e) {
+            throw new DownloadWriter.ProcessException(e);
+        }
+        if (start < position) {
+            replay(processor, localFile, start, position);
+        }
+        return processor;
+    }
+
+    /**
+     * 将文件中的数据交给处理器
+     *
+     * @param processor 数据处理器
+     * @param localFile 本地文件
+     * @param start     开始位置
+     * @param end       结束位置，不包含
+     * @throws IOException 读取文件或处理失败
+     */
+    private void replay(DownloadProcessor processor, File localFile, long start, long end) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(localFile, "r");
+        try {
+            file.seek(start);
+            byte[] bytes = new byte[MIN_BUFFER_SIZE];
+            long remaining = end - start;
+            int len;
+            while (remaining > 0 && (len = file.read(bytes, 0, (int) Math.min(bytes.length, remaining))) != -1) {
+                try {
+                    processor.process(bytes, 0, len);
+                } catch (IOException e) {
+                    throw new DownloadWriter.ProcessException(e);
+                }
+                remaining -= len;
+            }
+            if (remaining > 0) {
+                throw new IOException("file is incomplete");
+            }
+        } finally {
+            file.close();
+        }
+    }
+
+    /**
+     * 所有数据已处理，通知处理器完成
+     *
+     * @param processor 数据处理器
+     * @throws IOException 处理失败
+     */
+    private void finishProcessor(DownloadProcessor processor) throws IOException {
+        try {
+            processor.finish();
+        } catch (IOException e) {
+            throw new DownloadWriter.ProcessException(e);
+        }
+    }
+
+    /**
+     * 分段下载完成后从文件中读取数据处理，处理失败时回调onError
+     *
+     * @param info      下载信息
+     * @param localFile 本地文件
+     * @param listener  下载监听
+     * @return 是否处理成功
+     */
+    private boolean processFile(DownloadInfo info, File localFile, DownloadListener listener) {
+        DownloadProcessor processor = info.getProcessor();
+        if (processor == null) {
+            return true;
+        }
+        try {
+            long length = info.getTotalSize();
+            replay(processor, localFile, processor.start(length), length);
+            processor.finish();
+            return true;
+        } catch (IOException e) {
+            processor.close();
+            sendErrorCallback(listener, -1, new DownloadError(DownloadConst.Error.PROCESS_FAILED, e.getMessage()));
+            return false;
+        }
+    }
+
+    /**
+     * 校验失败，删除文件并将进度和分段重置到开头，再次开始时重新下载
+     *
+     * @param info      下载信息
+     * @param localFile 本地文件
+     * @param listener  下载监听
+     */
+    private void sendChecksumMismatch(DownloadInfo info, File localFile, DownloadListener listener) {
+        if (!localFile.delete()) {
+            mPlatform.log("DownloadTask", "Delete file failed");
+        }
+        info.setCurrSize(0);
+        if (info.isSegmented()) {
+            for (DownloadSegment segment : info.getSegments()) {
+                segment.setCurr(segment.getStart());
+                segment.setCheckpoint(segment.getStart());
+            }
+        }
+        sendErrorCallback(listener, -1, new DownloadError(DownloadConst.Error.CHECKSUM_MISMATCH, info.getChecksumType()));
+    }
+
+    /**
+     * 是否支持该校验算法
+     *
+     * @param algorithm 校验算法
+     * @return 是否支持
+     */
+    private boolean isChecksumSupported(String algorithm) {
+        try {
+            new DownloadDigest(algorithm);
+            return true;
+        } catch (NoSuchAlgorithmException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 分段续传时服务器返回200，说明文件已变化，取消其余分段并从头重新下载。
+     * 先删除旧文件，已取消的分段关闭时写入的是旧文件，不影响新下载
+     *
+     * @param info     下载信息
+     * @param failed   任务是否已结束
+     * @param listener 下载监听
+     */
+    private void restartSegments(DownloadInfo info, AtomicBoolean failed, DownloadListener listener) {
+        if (!failed.compareAndSet(false, true)) {
+            return;
+        }
+        String url = info.getUrl();
+        cancelCalls(url);
+        release(url);
+        File localFile = new File(info.getDir() + File.separator + info.getName());
+        if (!localFile.delete()) {
+            mPlatform.log("DownloadTask", "Delete file failed");
+        }
+        info.setSegments(null);
+        info.setCurrSize(0);
+        info.setEtag(null);
+        info.setLastModified(null);
+        start(info, listener);
+    }
+
     /**
-     * 保证回调到主线程的Handler
+     * 续传时添加If-Range请求头，文件未变化时服务器返回206，否则返回200和完整文件。
+     * 弱ETag不能用于If-Range，此时使用Last-Modified
+     *
+     * @param builder 请求
+     * @param info    下载信息
      */
-    private Handler mHandler;
+    private void addIfRange(Request.Builder builder, DownloadInfo info) {
+        String etag = info.getEtag();
+        if (!isEmpty(etag) && !etag.startsWith("W/")) {
+            builder.addHeader("If-Range", etag);
+        } else if (!isEmpty(info.getLastModified())) {
+            builder.addHeader("If-Range", info.getLastModified());
+        }
+    }
 
     /**
-     * 保证在主线程中实例化
+     * 保存响应中用于校验文件是否变化的ETag和Last-Modified，随下载信息写入数据库
+     *
+     * @param info     下载信息
+     * @param response 响应
      */
-    public DownloadTask() {
-        mCallMap = new HashMap<>();
-        mHandler = new Handler(Looper.getMainLooper());
+    private void saveValidators(DownloadInfo info, Response response) {
+        info.setEtag(response.header("ETag"));
+        info.setLastModified(response.header("Last-Modified"));
     }
 
     /**
-     * 开始任务
+     * 某个分段失败时取消其余分段，并只回调一次onError
      *
      * @param url      下载地址
-     * @param path     保存路径
-     * @param rename   是否重命名
+     * @param failed   任务是否已失败
      * @param listener 下载监听
+     * @param error    错误信息
      */
-    public void start(final String url, final String path, final boolean rename, final DownloadListener listener) {
-        OkHttpClient client = new OkHttpClient();
-        final File localFile = new File(path);
-        final long range = localFile.length();
-        Request.Builder builder = new Request.Builder();
-        builder.url(url);
-        builder.tag(url);
-        builder.addHeader("Connection", "Keep-Alive");
-        if (range > 0) {
-            builder.addHeader("Range", "bytes=" + range + "-");
+    private void failSegments(String url, AtomicBoolean failed, DownloadListener listener, DownloadError error) {
+        if (!failed.compareAndSet(false, true)) {
+            return;
         }
-        Request request = builder.build();
-        Call call = client.newCall(request);
-        mCallMap.put(url, call);
-        call.enqueue(new Callback() {
-            @Override
-            public void onFailure(Call call, IOException e) {
-                e.printStackTrace();
-                listener.onError(-1, new DownloadError(DownloadConst.Error.FAIL, e.getMessage()));
-            }
+        cancelCalls(url);
+        release(url);
+        sendErrorCallback(listener, -1, error);
+    }
 
-            @Override
-            public void onResponse(Call call, Response response) throws IOException {
-                if (response == null) {
-                    sendErrorCallback(listener, -1, new DownloadError(DownloadConst.Error.RESP_NULL, "empty reponse"));
-                    return;
-                }
-                if (!response.isSuccessful() && !response.isRedirect()) {
-                    sendErrorCallback(listener, -1, new DownloadError(DownloadConst.Error.FAIL, response.message()));
-                    return;
-                }
+    /**
+     * 将文件按分段数切分为连续的区间
+     *
+     * @param totalLength 文件总大小
+     * @param count       分段数
+     * @return 分段列表
+     */
+    private List<DownloadSegment> createSegments(long totalLength, int count) {
+        List<DownloadSegment> segments = new ArrayList<>(count);
+        long size = totalLength / count;
+        for (int i = 0; i < count; i++) {
+            long start = i * size;
+            long end = i == count - 1 ? totalLength - 1 : start + size - 1;
+            segments.add(new DownloadSegment(i, start, end));
+        }
+        return segments;
+    }
 
-                long fileLength = localFile.length();
-                long totalLength = 0L;
-                if (response.header("Content-Length") != null) {
-                    totalLength = Long.parseLong(response.header("Content-Length"));
-                }
-                if (fileLength == 0) {
-                    sendStartCallback(listener, -1, totalLength);
-                } else {
-                    if (isSupportRanges(response)) {
-                        totalLength += fileLength;
+    /**
+     * 任务的分段数，任务未指定时使用全局配置
+     *
+     * @param info 下载信息
+     * @return 分段数
+     */
+    private int getSegmentCount(DownloadInfo info) {
+        if (info.getProcessor() != null) {
+            //处理器需要按顺序接收数据
+            return 1;
+        }
+        return info.getSegmentCount() > 0 ? info.getSegmentCount() : mConfig.getSegmentCount();
+    }
+
+    /**
+     * 所有分段已下载的总大小
+     *
+     * @param segments 分段列表
+     * @return 已下载大小
+     */
+    public static long getDownloaded(List<DownloadSegment> segments) {
+        long downloaded = 0;
+        for (DownloadSegment segment : segments) {
+            downloaded += segment.getDownloaded();
+        }
+        return downloaded;
+    }
+
+    /**
+     * 在写入前为文件分配总大小的空间，写入连续且空间不足时不会写入任何数据。
+     * 平台不支持预分配时检查剩余空间并为该任务预留还需写入的大小，空间不足时回调onError
+     *
+     * @param url         下载地址
+     * @param path        保存路径
+     * @param totalLength 文件总大小，未知时为0，不预分配
+     * @param remaining   还需写入的大小
+     * @param listener    下载监听
+     * @return 空间是否足够
+     */
+    private boolean allocate(String url, String path, long totalLength, long remaining, DownloadListener listener) {
+        if (totalLength > 0) {
+            RandomAccessFile file = null;
+            try {
+                file = new RandomAccessFile(path, "rw");
+                if (mPlatform.allocate(file, totalLength)) {
+                    if (file.length() > totalLength) {
+                        file.setLength(totalLength);
                     }
-                    sendRestartCallback(listener, -1, fileLength, totalLength);
+                    return true;
                 }
-                if (path.startsWith(INTERNAL_DIR)) {
-                    if (getAvailableInternalMemorySize() <= totalLength - fileLength) {
-                        sendErrorCallback(listener, -1, new DownloadError(DownloadConst.Error.INSUFFICIENT_SPACE, path));
-                        return;
-                    }
-                } else {
-                    if (getAvailableExternalMemorySize() <= totalLength - fileLength) {
-                        sendErrorCallback(listener, -1, new DownloadError(DownloadConst.Error.INSUFFICIENT_SPACE, path));
-                        return;
+            } catch (IOException e) {
+                mPlatform.log("DownloadTask", "Allocate failed: " + e.getMessage());
+                release(url);
+                sendErrorCallback(listener, -1, new DownloadError(DownloadConst.Error.INSUFFICIENT_SPACE, path));
+                return false;
+            } finally {
+                if (file != null) {
+                    try {
+                        file.close();
+                    } catch (IOException e) {
+                        mPlatform.log("DownloadTask", "Close file failed");
                     }
                 }
+            }
+        }
+        synchronized (mReservedMap) {
+            long available = mPlatform.getAvailableSpace(path);
+            for (Map.Entry<String, AtomicLong> entry : mReservedMap.entrySet()) {
+                if (!entry.getKey().equals(url)) {
+                    available -= Math.max(entry.getValue().get(), 0);
+                }
+            }
+            if (available <= remaining) {
+                mReservedMap.remove(url);
+                release(url);
+                sendErrorCallback(listener, -1, new DownloadError(DownloadConst.Error.INSUFFICIENT_SPACE, path));
+                return false;
+            }
+            mReservedMap.put(url, new AtomicLong(remaining));
+        }
+        return true;
+    }
 
-                try {
-                    InputStream in;
-                    RandomAccessFile out;
-                    byte[] bytes = new byte[2048];
-                    int len;
-                    in = new BufferedInputStream(response.body().byteStream());
-                    out = new RandomAccessFile(path, "rwd");
-                    if (isSupportRanges(response)) {
-                        out.seek(range);
-                    } else {
-                        out.seek(0);
-                    }
-                    while ((len = in.read(bytes)) != -1) {
-                        out.write(bytes, 0, len);
-                        sendProgressCallback(listener, -1, localFile.length(), totalLength);
-                    }
-                    if (totalLength == 0) {
-//                        if (localFile.length() != 0) {
-//                            sendCompleteCallback(listener, -1, localFile.getParent(), localFile.getName());
-//                        } else {
-                            sendErrorCallback(listener, -1, new DownloadError(DownloadConst.Error.FILE_INCOMPLETE, "file is incomplete"));
-//                        }
-                    } else {
-                        if (localFile.length() != 0 && localFile.length() == totalLength) {
-                            File resultFile = localFile;
-                            if (rename) {
-                                resultFile = renameFile(localFile, response);
-                            }
-                            sendCompleteCallback(listener, -1, resultFile.getParent(), resultFile.getName());
-                        } else {
-                            sendErrorCallback(listener, -1, new DownloadError(DownloadConst.Error.FILE_INCOMPLETE, "file is incomplete"));
-                        }
-                    }
-                } catch (IOException e) {
-//                    e.printStackTrace();
-                    Log.d("DownloadTask", "Socket closed");
-//                    sendErrorCallback(listener, -1, new DownloadError(DownloadConst.Error.IO_EXCEPTION, response.message()));
+    /**
+     * 任务预留的空间，写入后相应减少
+     *
+     * @param url 下载地址
+     * @return 预留的空间，已预分配时为null
+     */
+    private AtomicLong getReserved(String url) {
+        synchronized (mReservedMap) {
+            return mReservedMap.get(url);
+        }
+    }
+
+    /**
+     * 释放任务预留的空间
+     *
+     * @param url 下载地址
+     */
+    private void releaseReserved(String url) {
+        synchronized (mReservedMap) {
+            mReservedMap.remove(url);
+        }
+    }
+
+    /**
+     * 关闭文件，写入缓冲区中已收到的数据。用于暂停或出错时，忽略关闭过程中的异常
+     *
+     * @param out 文件写入
+     */
+    private void closeWriter(DownloadWriter out) {
+        try {
+            out.close();
+        } catch (IOException e) {
+            mPlatform.log("DownloadTask", "Close file failed");
+        }
+    }
+
+    /**
+     * 任务结束后移除其请求和下载信息
+     *
+     * @param url 下载地址
+     */
+    private void release(String url) {
+        finishMetrics(url);
+        releaseReserved(url);
+        mListenerMap.remove(url);
+        mCallMap.remove(url);
+        mInfoMap.remove(url);
+        mLimiterMap.remove(url);
+    }
+
+    /**
+     * 开始新的下载指标，替换该地址上一次下载的指标
+     *
+     * @param url 下载地址
+     * @return 下载指标
+     */
+    private DownloadMetricsRecorder newMetrics(String url) {
+        DownloadMetricsRecorder metrics = new DownloadMetricsRecorder(url);
+        DownloadMetricsRecorder old = mMetricsMap.put(url, metrics);
+        if (old != null) {
+            retireMetrics(old);
+        }
+        return metrics;
+    }
+
+    /**
+     * 将不再按地址保存的指标计入汇总
+     *
+     * @param metrics 下载指标
+     */
+    private void retireMetrics(DownloadMetricsRecorder metrics) {
+        metrics.finish();
+        DownloadMetrics snapshot = metrics.snapshot();
+        synchronized (mRetiredMetrics) {
+            mRetiredMetrics.add(snapshot);
+        }
+    }
+
+    /**
+     * 下载结束时停止计时并推送最终的指标
+     *
+     * @param url 下载地址
+     */
+    private void finishMetrics(String url) {
+        DownloadMetricsRecorder metrics = mMetricsMap.get(url);
+        if (metrics != null && !metrics.isFinished()) {
+            metrics.finish();
+            sendMetrics(metrics);
+        }
+    }
+
+    /**
+     * 推送指标快照
+     *
+     * @param metrics 下载指标
+     */
+    private void sendMetrics(DownloadMetricsRecorder metrics) {
+        DownloadMetricsSink sink = mMetricsSink;
+        if (sink != null) {
+            sink.onMetrics(metrics.snapshot());
+        }
+    }
+
+    /**
+     * 添加统计请求的拦截器，与原OkHttpClient共享连接池和线程池
+     *
+     * @param client OkHttpClient
+     * @return 添加拦截器后的OkHttpClient
+     */
+    private OkHttpClient withMetrics(OkHttpClient client) {
+        if (client.networkInterceptors().contains(mMetricsInterceptor)) {
+            return client;
+        }
+        return client.newBuilder().addNetworkInterceptor(mMetricsInterceptor).build();
+    }
+
+    /**
+     * 统计每个请求及其是否复用了连接，请求的tag为下载地址
+     */
+    private class MetricsInterceptor implements Interceptor {
+        @Override
+        public Response intercept(Chain chain) throws IOException {
+            Object tag = chain.request().tag();
+            DownloadMetricsRecorder metrics = tag instanceof String ? mMetricsMap.get(tag) : null;
+            Connection connection = chain.connection();
+            if (metrics != null && connection != null) {
+                boolean reused;
+                synchronized (mConnections) {
+                    reused = mConnections.put(connection, Boolean.TRUE) != null;
                 }
+                metrics.onRequest(reused);
             }
-        });
+            return chain.proceed(chain.request());
+        }
+    }
+
+    /**
+     * 取消任务的所有请求。先移除监听，等待重试的请求不再发起，正在发起的请求会自行取消
+     *
+     * @param url 下载地址
+     */
+    private void cancelCalls(String url) {
+        mListenerMap.remove(url);
+        List<Call> calls = mCallMap.get(url);
+        if (calls != null) {
+            for (Call call : calls) {
+                call.cancel();
+            }
+        }
+    }
+
+    /**
+     * 进度回调节流，距上次回调的时间和字节数都达到配置值时才回调，分段下载时各分段共用
+     */
+    private class ProgressThrottle {
+        /**
+         * 上次回调时间，毫秒
+         */
+        private long mLastTime;
+        /**
+         * 上次回调时的大小
+         */
+        private long mLastSize;
+        /**
+         * 是否已回调过
+         */
+        private boolean mSent;
+
+        /**
+         * 是否需要回调进度
+         *
+         * @param currSize 当前大小
+         * @return 是否回调
+         */
+        public synchronized boolean shouldSend(long currSize) {
+            long now = TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+            if (mSent && (now - mLastTime < mConfig.getProgressInterval()
+                    || currSize - mLastSize < mConfig.getProgressBytes())) {
+                return false;
+            }
+            mSent = true;
+            mLastTime = now;
+            mLastSize = currSize;
+            return true;
+        }
+    }
+
+    /**
+     * 低速检测，每个连接一个。按检测时间划分窗口，窗口内的速度低于配置的最低速度时抛出{@link StallException}，
+     * 限速等待的时间不计入窗口。完全没有数据时由读超时处理
+     */
+    private class StallWatchdog {
+        /**
+         * 窗口长度，纳秒
+         */
+        private final long mWindow = TimeUnit.MILLISECONDS.toNanos(mConfig.getStallWindow());
+        /**
+         * 最低速度，字节/秒
+         */
+        private final long mMinBytesPerSecond = mConfig.getStallBytesPerSecond();
+        /**
+         * 窗口开始时间，纳秒
+         */
+        private long mWindowStart = System.nanoTime();
+        /**
+         * 窗口内读取的字节数
+         */
+        private long mWindowBytes;
+        /**
+         * 窗口内限速等待的时间，纳秒
+         */
+        private long mLimitTime;
+
+        /**
+         * 读取数据后检查速度
+         *
+         * @param count     读取的字节数
+         * @param limitTime 本次限速等待的时间，纳秒
+         * @param metrics   下载指标，低速时记录
+         * @throws StallException 速度过低
+         */
+        public void onRead(long count, long limitTime, DownloadMetricsRecorder metrics) throws StallException {
+            if (mMinBytesPerSecond <= 0) {
+                return;
+            }
+            mWindowBytes += count;
+            mLimitTime += limitTime;
+            long now = System.nanoTime();
+            long elapsed = now - mWindowStart - mLimitTime;
+            if (elapsed < mWindow) {
+                return;
+            }
+            if (mWindowBytes * TimeUnit.SECONDS.toNanos(1) / elapsed < mMinBytesPerSecond) {
+                metrics.onStall(TimeUnit.NANOSECONDS.toMillis(elapsed));
+                throw new StallException(mWindowBytes, TimeUnit.NANOSECONDS.toMillis(elapsed));
+            }
+            mWindowStart = now;
+            mWindowBytes = 0;
+            mLimitTime = 0;
+        }
+    }
+
+    /**
+     * 连接速度过低，断开后从已写入的位置重新连接
+     */
+    private static class StallException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        public StallException(long bytes, long time) {
+            super("stalled, " + bytes + " bytes in " + time + "ms");
+        }
+    }
+
+    /**
+     * 按全局和任务限速扣除令牌。同一任务的分段依次申请全局令牌，
+     * 每个任务同时只有一个线程在等待全局令牌，全局带宽因此在任务间轮流分配
+     *
+     * @param limiter 任务限速
+     * @param bytes   已读取的字节数
+     * @throws IOException 等待被中断
+     */
+    private void limit(DownloadRateLimiter limiter, long bytes) throws IOException {
+        if (!mGlobalLimiter.isLimited() && !limiter.isLimited()) {
+            return;
+        }
+        synchronized (limiter) {
+            mGlobalLimiter.acquire(bytes);
+            limiter.acquire(bytes);
+        }
+    }
+
+    /**
+     * 单次读取的字节数，限速时不超过1/20秒的额度，避免突发
+     *
+     * @param sizer   读写粒度
+     * @param limiter 任务限速
+     * @return 字节数
+     */
+    private long getReadSize(BufferSizer sizer, DownloadRateLimiter limiter) {
+        long rate = 0;
+        if (mGlobalLimiter.isLimited()) {
+            rate = mGlobalLimiter.getBytesPerSecond();
+        }
+        if (limiter.isLimited() && (rate == 0 || limiter.getBytesPerSecond() < rate)) {
+            rate = limiter.getBytesPerSecond();
+        }
+        if (rate == 0) {
+            return sizer.getSize();
+        }
+        return Math.min(sizer.getSize(), Math.max(MIN_READ_SIZE, rate / 20));
+    }
+
+    /**
+     * 根据下载速度调整读写粒度：慢速时小块写入以便断点及时前进，高速时大块写入以减少系统调用
+     */
+    private class BufferSizer {
+        /**
+         * 统计窗口，毫秒
+         */
+        private static final long WINDOW = 500;
+        /**
+         * 缓冲区保存的数据时长，毫秒
+         */
+        private static final long BUFFER_TIME = 100;
+        /**
+         * 窗口开始时间
+         */
+        private long mWindowStart = TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+        /**
+         * 窗口内读取的字节数
+         */
+        private long mWindowBytes;
+        /**
+         * 当前缓冲区大小
+         */
+        private int mSize = MIN_BUFFER_SIZE;
+
+        /**
+         * 当前缓冲区大小
+         *
+         * @return 大小
+         */
+        public int getSize() {
+            return mSize;
+        }
+
+        /**
+         * 记录读取的字节数，每个统计窗口按速度重新计算缓冲区大小
+         *
+         * @param count 读取的字节数
+         * @return 缓冲区大小
+         */
+        public int onRead(long count) {
+            mWindowBytes += count;
+            long now = TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+            long elapsed = now - mWindowStart;
+            if (elapsed >= WINDOW) {
+                long size = mWindowBytes * BUFFER_TIME / elapsed;
+                mSize = (int) Math.max(MIN_BUFFER_SIZE, Math.min(size, mConfig.getWriteBufferSize()));
+                mWindowStart = now;
+                mWindowBytes = 0;
+            }
+            return mSize;
+        }
+    }
+
+    /**
+     * 获取正在下载的任务信息
+     *
+     * @param url 下载地址
+     * @return 下载信息，未在下载时返回null
+     */
+    public DownloadInfo getRunningInfo(String url) {
+        return mInfoMap.get(url);
+    }
+
+    /**
+     * 回调使用的执行器，下载信息中指定了回调执行器时使用该执行器，否则使用配置中的回调执行器
+     *
+     * @param listener 监听
+     * @return 回调执行器
+     */
+    private Executor getCallbackExecutor(DownloadListener listener) {
+        if (listener instanceof DownloadListenerGroup) {
+            Executor executor = ((DownloadListenerGroup) listener).getCallbackExecutor();
+            if (executor != null) {
+                return executor;
+            }
+        }
+        return mCallbackExecutor;
+    }
+
+    /**
+     * 让不在下载中的回调也使用下载信息中指定的回调执行器
+     *
+     * @param listener 监听
+     * @param executor 回调执行器，为null时不需要处理
+     * @return 使用该执行器回调的监听
+     */
+    private static DownloadListener withCallbackExecutor(DownloadListener listener, Executor executor) {
+        if (executor == null) {
+            return listener;
+        }
+        DownloadListenerGroup group = new DownloadListenerGroup(listener);
+        group.setCallbackExecutor(executor);
+        return group;
     }
 
     /**
-     * 主线程调用onStart
+     * 回调执行器中调用onStart
      *
      * @param listener 监听
      * @param id       任务id
      * @param size     文件大小
      */
     private void sendStartCallback(final DownloadListener listener, final int id, final long size) {
-        mHandler.post(new Runnable() {
+        getCallbackExecutor(listener).execute(new Runnable() {
             @Override
             public void run() {
                 if (listener != null) {
@@ -176,7 +1749,7 @@ public class DownloadTask {
     }
 
     /**
-     * 主线程调用onRestart
+     * 回调执行器中调用onRestart
      *
      * @param listener  监听
      * @param id        任务id
@@ -184,7 +1757,7 @@ public class DownloadTask {
      * @param totalSize 总大小
      */
     private void sendRestartCallback(final DownloadListener listener, final int id, final long currSize, final long totalSize) {
-        mHandler.post(new Runnable() {
+        getCallbackExecutor(listener).execute(new Runnable() {
             @Override
             public void run() {
                 if (listener != null) {
@@ -195,7 +1768,7 @@ public class DownloadTask {
     }
 
     /**
-     * 主线程调用onProgress
+     * 回调执行器中调用onProgress
      *
      * @param listener  监听
      * @param id        任务id
@@ -206,7 +1779,7 @@ public class DownloadTask {
         if(totalSize == 0){
             return;
         }
-        mHandler.post(new Runnable() {
+        getCallbackExecutor(listener).execute(new Runnable() {
             @Override
             public void run() {
                 if (listener != null) {
@@ -217,7 +1790,7 @@ public class DownloadTask {
     }
 
     /**
-     * 主线程调用onComplete
+     * 回调执行器中调用onComplete
      *
      * @param listener 监听
      * @param id       任务id
@@ -225,7 +1798,7 @@ public class DownloadTask {
      * @param name     文件名
      */
     private void sendCompleteCallback(final DownloadListener listener, final int id, final String dir, final String name) {
-        mHandler.post(new Runnable() {
+        getCallbackExecutor(listener).execute(new Runnable() {
             @Override
             public void run() {
                 if (listener != null) {
@@ -236,14 +1809,14 @@ public class DownloadTask {
     }
 
     /**
-     * 主线程调用onError
+     * 回调执行器中调用onError
      *
      * @param listener      监听
      * @param id            任务id
      * @param downloadError 错误信息
      */
     private void sendErrorCallback(final DownloadListener listener, final int id, final DownloadError downloadError) {
-        mHandler.post(new Runnable() {
+        getCallbackExecutor(listener).execute(new Runnable() {
             @Override
             public void run() {
                 if (listener != null) {
@@ -254,14 +1827,14 @@ public class DownloadTask {
     }
 
     /**
-     * 主线程调用onPause
+     * 回调执行器中调用onPause
      *
      * @param listener 监听
      * @param id       任务id
      * @param currSize 当前大小
      */
     private void sendPauseCallback(final DownloadListener listener, final int id, final long currSize) {
-        mHandler.post(new Runnable() {
+        getCallbackExecutor(listener).execute(new Runnable() {
             @Override
             public void run() {
                 if (listener != null) {
@@ -272,13 +1845,13 @@ public class DownloadTask {
     }
 
     /**
-     * 主线程调用onCancel
+     * 回调执行器中调用onCancel
      *
      * @param listener 监听
      * @param id       任务id
      */
     private void sendCancelCallback(final DownloadListener listener, final int id) {
-        mHandler.post(new Runnable() {
+        getCallbackExecutor(listener).execute(new Runnable() {
             @Override
             public void run() {
                 if (listener != null) {
@@ -288,6 +1861,16 @@ public class DownloadTask {
         });
     }
 
+    /**
+     * 字符串是否为空
+     *
+     * @param str 字符串
+     * @return 是否为空
+     */
+    private static boolean isEmpty(String str) {
+        return str == null || str.length() == 0;
+    }
+
     /**
      * 判断是否支持断点续传
      *
@@ -299,11 +1882,11 @@ public class DownloadTask {
             return false;
         } else {
             String header = resp.header("Accept-Ranges");
-            if (!TextUtils.isEmpty(header)) {
+            if (!isEmpty(header)) {
                 return "bytes".equals(header);
             } else {
                 header = resp.header("Content-Range");
-                return !TextUtils.isEmpty(header) && header.startsWith("bytes");
+                return !isEmpty(header) && header.startsWith("bytes");
             }
         }
     }
@@ -317,7 +1900,7 @@ public class DownloadTask {
      */
     private File renameFile(File localFile, Response response) {
         String disposition = response.header("Content-Disposition");
-        if (!TextUtils.isEmpty(disposition)) {
+        if (!isEmpty(disposition)) {
             int startIndex = disposition.indexOf("filename=");
             if (startIndex > 0) {
                 startIndex += "filename=".length();
@@ -331,7 +1914,7 @@ public class DownloadTask {
                         File newFile = new File(localFile.getParent(), newFileName);
                         return localFile.renameTo(newFile) ? newFile : localFile;
                     } catch (UnsupportedEncodingException e) {
-                        e.printStackTrace();
+                        mPlatform.log("DownloadTask", "Decode file name failed: " + e.getMessage());
                     }
                 }
             }
@@ -340,20 +1923,25 @@ public class DownloadTask {
     }
 
     /**
-     * 暂停
+     * 暂停。没有在下载时以记录中的进度回调，预分配空间后文件长度即为总大小，不能作为进度
      *
-     * @param url      下载地址
-     * @param path     文件路径
+     * @param info     下载信息，分段下载的记录需要带有已保存的分段
      * @param listener 监听
      */
-    public void pause(String url, String path, DownloadListener listener) {
-        if (mCallMap != null && mCallMap.containsKey(url)) {
-            Call call = mCallMap.get(url);
-            if (call != null) {
-                call.cancel();
-            }
+    public void pause(DownloadInfo info, DownloadListener listener) {
+        String url = info.getUrl();
+        DownloadListenerGroup group = mListenerMap.get(url);
+        DownloadInfo runningInfo = mInfoMap.get(url);
+        cancelCalls(url);
+        release(url);
+        if (runningInfo != null) {
+            info = runningInfo;
         }
-        sendPauseCallback(listener, -1, new File(path).length());
+        long currSize = info.isSegmented() ? getDownloaded(info.getSegments()) : info.getCurrSize();
+        if (group != null) {
+            listener = withCallbackExecutor(listener, group.getCallbackExecutor());
+        }
+        sendPauseCallback(listener, -1, currSize);
     }
 
     /**
@@ -363,65 +1951,28 @@ public class DownloadTask {
      * @param listener 监听
      */
     public void cancel(String url, DownloadListener listener) {
-        if (mCallMap != null && mCallMap.containsKey(url)) {
-            Call call = mCallMap.get(url);
-            if (call != null) {
-                call.cancel();
-            }
+        DownloadListenerGroup group = mListenerMap.get(url);
+        if (group != null) {
+            listener = withCallbackExecutor(listener, group.getCallbackExecutor());
         }
-        sendCancelCallback(listener, -1);
-    }
-
-    /**
-     * 剩余内部存储空间大小
-     *
-     * @return 空间大小
-     */
-    public static long getAvailableInternalMemorySize() {
-        File path = Environment.getDataDirectory();
-        StatFs stat = new StatFs(path.getPath());
-        long blockSize;
-        long availableBlocks;
-        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN_MR2) {
-            blockSize = stat.getBlockSize();
-            availableBlocks = stat.getAvailableBlocks();
-        } else {
-            blockSize = stat.getBlockSizeLong();
-            availableBlocks = stat.getAvailableBlocksLong();
+        cancelCalls(url);
+        release(url);
+        mDigestMap.remove(url);
+        DownloadMetricsRecorder metrics = mMetricsMap.remove(url);
+        if (metrics != null) {
+            retireMetrics(metrics);
         }
-        return availableBlocks * blockSize;
+        sendCancelCallback(listener, -1);
     }
 
     /**
-     * 剩余外部存储空间大小
-     *
-     * @return 空间大小
+     * 关闭，取消所有下载且不再回调，停止重试线程。关闭后不能再开始下载
      */
-    public static long getAvailableExternalMemorySize() {
-        if (hasSDCard()) {
-            File path = Environment.getExternalStorageDirectory();
-            StatFs stat = new StatFs(path.getPath());
-            long blockSize;
-            long availableBlocks;
-            if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN_MR2) {
-                blockSize = stat.getBlockSize();
-                availableBlocks = stat.getAvailableBlocks();
-            } else {
-                blockSize = stat.getBlockSizeLong();
-                availableBlocks = stat.getAvailableBlocksLong();
-            }
-            return availableBlocks * blockSize;
-        } else {
-            return -1;
+    public void shutdown() {
+        for (String url : mListenerMap.keySet()) {
+            cancelCalls(url);
+            release(url);
         }
-    }
-
-    /**
-     * 是否装载SD卡
-     *
-     * @return 是否装载
-     */
-    public static boolean hasSDCard() {
-        return Environment.getExternalStorageState().equals(Environment.MEDIA_MOUNTED);
+        mRetryExecutor.shutdownNow();
     }
 }
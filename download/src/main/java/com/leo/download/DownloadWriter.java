@@ -0,0 +1,338 @@
+package com.leo.download;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+
+import okio.Buffer;
+import okio.Source;
+
+/**
+ * 文件写入，响应数据以Okio分段的形式移入缓冲区，缓冲区满时通过FileChannel写入文件，并按配置定期同步到存储。
+ * 分段由Okio的分段池复用，写入文件后归还。也可以按窗口将文件映射到内存，分段直接复制到映射区域
+ */
+public class DownloadWriter {
+    /**
+     * 数据处理器的异常，与写入文件失败区分，不应重试
+     */
+    public static class ProcessException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        public ProcessException(IOException cause) {
+            super(cause.getMessage(), cause);
+        }
+    }
+
+    /**
+     * 内存映射的窗口大小，限制占用的虚拟地址空间
+     */
+    public static final long MAP_WINDOW_SIZE = 8 * 1024 * 1024;
+
+    /**
+     * 同步监听
+     */
+    public interface SyncListener {
+        /**
+         * 数据已同步到存储
+         *
+         * @param position 已同步的位置
+         */
+        void onSync(long position);
+    }
+
+    /**
+     * 目标文件
+     */
+    private RandomAccessFile mFile;
+    /**
+     * 文件通道
+     */
+    private FileChannel mChannel;
+    /**
+     * 写入文件通道的输出流
+     */
+    private OutputStream mOut;
+    /**
+     * 写入缓冲区
+     */
+    private Buffer mBuffer;
+    /**
+     * 缓冲区达到该大小时写入文件
+     */
+    private long mBufferSize;
+    /**
+     * 已写入文件的位置，不含缓冲区中的数据
+     */
+    private long mFlushedPosition;
+    /**
+     * 上次同步到存储后写入的字节数
+     */
+    private long mUnsyncedBytes;
+    /**
+     * 每写入多少字节同步一次，0表示只在关闭时同步
+     */
+    private long mSyncBytes;
+    /**
+     * 同步监听
+     */
+    private SyncListener mSyncListener;
+    /**
+     * 文件校验，写入文件前更新摘要
+     */
+    private DownloadDigest mDigest;
+    /**
+     * 数据处理器，写入文件前按顺序处理数据
+     */
+    private DownloadProcessor mProcessor;
+    /**
+     * 将写入的数据交给处理器的输出流
+     */
+    private OutputStream mProcessorOut;
+    /**
+     * 内存映射的结束位置，0表示不使用内存映射
+     */
+    private long mMapLimit;
+    /**
+     * 当前映射的窗口
+     */
+    private MappedByteBuffer mMapped;
+    /**
+     * 当前窗口在文件中的起始位置
+     */
+    private long mMapStart;
+
+    /**
+     * 构造方法
+     *
+     * @param path       文件路径
+     * @param position   开始写入的位置
+     * @param bufferSize 缓冲区大小
+     * @param syncBytes  每写入多少字节同步一次，0表示只在关闭时同步
+     * @throws IOException 打开文件失败
+     */
+    public DownloadWriter(String path, long position, int bufferSize, long syncBytes) throws IOException {
+        mFile = new RandomAccessFile(path, "rw");
+        mChannel = mFile.getChannel();
+        mChannel.position(position);
+        mOut = Channels.newOutputStream(mChannel);
+        mBuffer = new Buffer();
+        mBufferSize = bufferSize;
+        mFlushedPosition = position;
+        mSyncBytes = syncBytes;
+    }
+
+    /**
+     * 从响应中读取数据到缓冲区，缓冲区满时写入文件
+     *
+     * @param source    响应数据
+     * @param byteCount 最多读取的字节数
+     * @return 读取的字节数，响应结束时返回-1
+     * @throws IOException 读取或写入失败
+     */
+    public long transferFrom(Source source, long byteCount) throws IOException {
+        long count = source.read(mBuffer, byteCount);
+        if (count > 0 && mBuffer.size() >= mBufferSize) {
+            flush();
+        }
+        return count;
+    }
+
+    /**
+     * 改为通过内存映射写入，之后写入的数据不能超过结束位置。映射区域超出文件长度时文件会被扩展，
+     * 空间不足时写入映射区域会导致进程崩溃，因此只应在已预分配空间后使用
+     *
+     * @param limit 结束位置，不包含
+     * @throws IOException 写入缓冲区中的数据失败
+     */
+    public void map(long limit) throws IOException {
+        flush();
+        mMapLimit = limit;
+        mOut = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                nextWindow().put((byte) b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                while (len > 0) {
+                    MappedByteBuffer mapped = nextWindow();
+                    int count = Math.min(len, mapped.remaining());
+                    mapped.put(b, off, count);
+                    off += count;
+                    len -= count;
+                }
+            }
+        };
+    }
+
+    /**
+     * 有剩余空间的映射窗口，当前窗口已写满时将其刷新到存储，再映射下一个窗口
+     *
+     * @return 映射窗口
+     * @throws IOException 超出结束位置或映射失败
+     */
+    private MappedByteBuffer nextWindow() throws IOException {
+        if (mMapped != null && mMapped.hasRemaining()) {
+            return mMapped;
+        }
+        long start = mMapped == null ? mFlushedPosition : mMapStart + mMapped.capacity();
+        if (start >= mMapLimit) {
+            throw new IOException("write beyond mapped limit " + mMapLimit);
+        }
+        if (mMapped != null) {
+            mMapped.force();
+        }
+        mMapped = mChannel.map(FileChannel.MapMode.READ_WRITE, start, Math.min(MAP_WINDOW_SIZE, mMapLimit - start));
+        mMapStart = start;
+        return mMapped;
+    }
+
+    /**
+     * 修改缓冲区大小，用于根据下载速度调整写入粒度
+     *
+     * @param bufferSize 缓冲区大小
+     */
+    public void setBufferSize(long bufferSize) {
+        mBufferSize = bufferSize;
+    }
+
+    /**
+     * 将缓冲区中的数据写入文件，达到同步间隔时同步到存储
+     *
+     * @throws IOException 写入失败
+     */
+    public void flush() throws IOException {
+        long count = mBuffer.size();
+        if (count > 0) {
+            if (mDigest != null) {
+                mDigest.update(mBuffer, count);
+            }
+            try {
+                if (mProcessor != null) {
+                    try {
+                        mBuffer.copyTo(mProcessorOut, 0, count);
+                    } catch (IOException e) {
+                        //处理失败后不再处理，关闭时仍写入缓冲区中的数据
+                        mProcessor = null;
+                        throw new ProcessException(e);
+                    }
+                }
+                mBuffer.writeTo(mOut, count);
+            } catch (IOException e) {
+                if (mDigest != null) {
+                    //摘要已包含未写入的数据，不能再继续使用
+                    mDigest.reset();
+                }
+                throw e;
+            }
+            mFlushedPosition += count;
+            mUnsyncedBytes += count;
+        }
+        if (mSyncBytes > 0 && mUnsyncedBytes >= mSyncBytes) {
+            sync();
+        }
+    }
+
+    /**
+     * 将已写入文件的数据同步到存储
+     *
+     * @throws IOException 同步失败
+     */
+    public void sync() throws IOException {
+        if (mMapped != null) {
+            //之前的窗口在切换时已刷新
+            mMapped.force();
+        } else {
+            mChannel.force(false);
+        }
+        mUnsyncedBytes = 0;
+        if (mSyncListener != null) {
+            mSyncListener.onSync(mFlushedPosition);
+        }
+    }
+
+    /**
+     * 设置同步监听，用于在数据确认写入存储后保存断点
+     *
+     * @param listener 监听
+     */
+    public void setSyncListener(SyncListener listener) {
+        mSyncListener = listener;
+    }
+
+    /**
+     * 设置文件校验，摘要的位置应与开始写入的位置一致
+     *
+     * @param digest 文件校验
+     */
+    public void setDigest(DownloadDigest digest) {
+        mDigest = digest;
+    }
+
+    /**
+     * 设置数据处理器，处理器应已处理到开始写入的位置
+     *
+     * @param processor 数据处理器
+     */
+    public void setProcessor(final DownloadProcessor processor) {
+        mProcessor = processor;
+        mProcessorOut = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                processor.process(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                processor.process(b, off, len);
+            }
+        };
+    }
+
+    /**
+     * 截断文件到当前写入位置，用于从头重新下载时清除旧数据
+     *
+     * @throws IOException 截断失败
+     */
+    public void truncate() throws IOException {
+        mChannel.truncate(getPosition());
+    }
+
+    /**
+     * 下一个写入位置，包含缓冲区中的数据
+     *
+     * @return 位置
+     */
+    public long getPosition() {
+        return mFlushedPosition + mBuffer.size();
+    }
+
+    /**
+     * 已写入文件的位置
+     *
+     * @return 位置
+     */
+    public long getFlushedPosition() {
+        return mFlushedPosition;
+    }
+
+    /**
+     * 写入剩余数据、同步到存储并关闭文件
+     *
+     * @throws IOException 写入或关闭失败
+     */
+    public void close() throws IOException {
+        try {
+            flush();
+            sync();
+        } finally {
+            mBuffer.clear();
+            mMapped = null;
+            mFile.close();
+        }
+    }
+}
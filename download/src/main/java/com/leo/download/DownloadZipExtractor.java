@@ -0,0 +1,508 @@
+package com.leo.download;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * 边下载边解压ZIP文件到目录，按本地文件头顺序解析，支持存储和Deflate压缩的条目，以及ZIP64的条目大小，并校验每个条目的CRC。
+ * 每个条目解压完成后记录其结束位置，暂停时保存到目录旁的记录文件，续传时从最后一个完整条目之后重新解压
+ */
+public class DownloadZipExtractor implements DownloadProcessor {
+    /**
+     * 本地文件头签名
+     */
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    /**
+     * 中央目录签名，之后不再有条目数据
+     */
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    /**
+     * 中央目录结束签名，没有条目的ZIP文件只有该记录
+     */
+    private static final int END_SIGNATURE = 0x06054b50;
+    /**
+     * 数据描述签名，可以省略
+     */
+    private static final int DESCRIPTOR_SIGNATURE = 0x08074b50;
+    /**
+     * 本地文件头长度，不含文件名和扩展字段
+     */
+    private static final int LOCAL_HEADER_SIZE = 30;
+    /**
+     * 条目大小由ZIP64扩展字段记录时的取值
+     */
+    private static final long ZIP64_MAGIC = 0xffffffffL;
+    /**
+     * 存储，未压缩
+     */
+    private static final int METHOD_STORED = 0;
+    /**
+     * Deflate压缩
+     */
+    private static final int METHOD_DEFLATED = 8;
+    /**
+     * 标志位：已加密
+     */
+    private static final int FLAG_ENCRYPTED = 1;
+    /**
+     * 标志位：大小记录在数据之后的数据描述中
+     */
+    private static final int FLAG_DESCRIPTOR = 8;
+
+    private static final int STATE_HEADER = 0;
+    private static final int STATE_FIELDS = 1;
+    private static final int STATE_DATA = 2;
+    private static final int STATE_DESCRIPTOR = 3;
+    private static final int STATE_END = 4;
+
+    /**
+     * 解压目录
+     */
+    private File mDir;
+    /**
+     * 解压目录的规范路径，用于检查条目不会写到目录之外
+     */
+    private String mDirPath;
+    /**
+     * 记录已完整解压位置的文件
+     */
+    private File mStateFile;
+    /**
+     * 解析状态
+     */
+    private int mState;
+    /**
+     * 本地文件头
+     */
+    private byte[] mHeader;
+    /**
+     * 文件名和扩展字段
+     */
+    private byte[] mFields;
+    /**
+     * 数据描述
+     */
+    private byte[] mDescriptor;
+    /**
+     * 当前读取的文件头、字段或数据描述的目标长度
+     */
+    private int mTarget;
+    /**
+     * 已读取的长度
+     */
+    private int mFilled;
+    /**
+     * 已处理到的位置
+     */
+    private long mPosition;
+    /**
+     * 最后一个完整条目的结束位置
+     */
+    private long mBoundary;
+    /**
+     * 当前条目的标志位
+     */
+    private int mFlags;
+    /**
+     * 当前条目的压缩方式
+     */
+    private int mMethod;
+    /**
+     * 当前条目的大小是否由ZIP64扩展字段记录
+     */
+    private boolean mZip64;
+    /**
+     * 当前条目的名称
+     */
+    private String mName;
+    /**
+     * 文件头中记录的CRC，有数据描述时以数据描述为准
+     */
+    private long mExpectedCrc;
+    /**
+     * 当前条目解压后数据的CRC
+     */
+    private CRC32 mCrc;
+    /**
+     * 存储的条目还需写入的字节数
+     */
+    private long mRemaining;
+    /**
+     * 当前条目的输出，目录条目为null
+     */
+    private OutputStream mOut;
+    /**
+     * Deflate解压
+     */
+    private Inflater mInflater;
+    /**
+     * 解压输出缓冲区
+     */
+    private byte[] mInflated;
+
+    /**
+     * 构造方法
+     *
+     * @param dir 解压目录，不存在时创建
+     */
+    public DownloadZipExtractor(File dir) {
+        mDir = dir;
+        mStateFile = new File(dir.getParentFile(), dir.getName() + ".extract");
+        mHeader = new byte[LOCAL_HEADER_SIZE];
+        mDescriptor = new byte[24];
+        mInflated = new byte[8 * 1024];
+        mCrc = new CRC32();
+    }
+
+    /**
+     * 解压目录
+     *
+     * @return 目录
+     */
+    public File getDir() {
+        return mDir;
+    }
+
+    @Override
+    public long start(long position) throws IOException {
+        closeEntry();
+        long boundary = 0;
+        if (position > 0) {
+            //同一对象续传时使用内存中的位置，否则读取暂停时保存的位置
+            boundary = mBoundary > 0 ? mBoundary : readState();
+            if (boundary > position) {
+                boundary = 0;
+            }
+        }
+        if (!mDir.isDirectory() && !mDir.mkdirs()) {
+            throw new IOException("create dir failed: " + mDir);
+        }
+        mDirPath = mDir.getCanonicalPath() + File.separator;
+        mPosition = boundary;
+        mBoundary = boundary;
+        expect(STATE_HEADER, 4);
+        return boundary;
+    }
+
+    @Override
+    public void process(byte[] data, int offset, int count) throws IOException {
+        while (count > 0) {
+            int n;
+            switch (mState) {
+                case STATE_HEADER:
+                    n = fill(mHeader, data, offset, count);
+                    if (mFilled == mTarget) {
+                        onHeader();
+                    }
+                    break;
+                case STATE_FIELDS:
+                    n = fill(mFields, data, offset, count);
+                    if (mFilled == mTarget) {
+                        onFields();
+                    }
+                    break;
+                case STATE_DATA:
+                    n = mMethod == METHOD_STORED ? writeStored(data, offset, count) : inflate(data, offset, count);
+                    break;
+                case STATE_DESCRIPTOR:
+                    n = fill(mDescriptor, data, offset, count);
+                    if (mFilled == mTarget) {
+                        onDescriptor();
+                    }
+                    break;
+                default:
+                    //中央目录不需要处理
+                    n = count;
+                    break;
+            }
+            offset += n;
+            count -= n;
+            mPosition += n;
+            if (mState == STATE_HEADER && mFilled == 0) {
+                mBoundary = mPosition;
+            }
+        }
+    }
+
+    @Override
+    public void finish() throws IOException {
+        if (mState != STATE_END) {
+            close();
+            throw new IOException("zip is incomplete at " + mPosition);
+        }
+        closeEntry();
+        endInflater();
+        if (mStateFile.exists() && !mStateFile.delete()) {
+            throw new IOException("delete state failed: " + mStateFile);
+        }
+        mBoundary = 0;
+    }
+
+    @Override
+    public void close() {
+        closeEntry();
+        endInflater();
+        OutputStream out = null;
+        try {
+            out = new FileOutputStream(mStateFile);
+            out.write(Long.toString(mBoundary).getBytes("UTF-8"));
+        } catch (IOException e) {
+            //没有记录时从头解压
+            mStateFile.delete();
+        } finally {
+            closeQuietly(out);
+        }
+    }
+
+    /**
+     * 读取文件头、字段或数据描述
+     */
+    private int fill(byte[] buffer, byte[] data, int offset, int count) {
+        int n = Math.min(mTarget - mFilled, count);
+        System.arraycopy(data, offset, buffer, mFilled, n);
+        mFilled += n;
+        return n;
+    }
+
+    private void expect(int state, int target) {
+        mState = state;
+        mTarget = target;
+        mFilled = 0;
+    }
+
+    /**
+     * 先读取签名判断是否已到中央目录，再读取完整的本地文件头
+     */
+    private void onHeader() throws IOException {
+        if (mTarget == 4) {
+            int signature = readInt(mHeader, 0);
+            if (signature == CENTRAL_HEADER_SIGNATURE || signature == END_SIGNATURE) {
+                expect(STATE_END, 0);
+                return;
+            }
+            if (signature != LOCAL_HEADER_SIGNATURE) {
+                throw new IOException("bad zip header at " + mPosition);
+            }
+            mTarget = LOCAL_HEADER_SIZE;
+            return;
+        }
+        mFlags = readShort(mHeader, 6);
+        mMethod = readShort(mHeader, 8);
+        if ((mFlags & FLAG_ENCRYPTED) != 0) {
+            throw new IOException("encrypted zip entry is not supported");
+        }
+        if (mMethod != METHOD_STORED && mMethod != METHOD_DEFLATED) {
+            throw new IOException("zip method " + mMethod + " is not supported");
+        }
+        mExpectedCrc = readInt(mHeader, 14) & 0xffffffffL;
+        mRemaining = readInt(mHeader, 18) & 0xffffffffL;
+        int length = readShort(mHeader, 26) + readShort(mHeader, 28);
+        mFields = new byte[length];
+        expect(STATE_FIELDS, length);
+        if (length == 0) {
+            onFields();
+        }
+    }
+
+    /**
+     * 读取文件名和ZIP64扩展字段，创建条目的输出
+     */
+    private void onFields() throws IOException {
+        int nameLength = readShort(mHeader, 26);
+        String name = new String(mFields, 0, nameLength, "UTF-8");
+        mName = name;
+        mCrc.reset();
+        mZip64 = false;
+        if (mRemaining == ZIP64_MAGIC) {
+            readZip64Size(nameLength);
+        }
+        if (mMethod == METHOD_STORED && (mFlags & FLAG_DESCRIPTOR) != 0 && mRemaining == 0) {
+            throw new IOException("stored zip entry without size is not supported: " + name);
+        }
+        File file = new File(mDir, name);
+        if (!file.getCanonicalPath().startsWith(mDirPath)) {
+            throw new IOException("zip entry is outside of dir: " + name);
+        }
+        if (name.endsWith("/")) {
+            if (!file.isDirectory() && !file.mkdirs()) {
+                throw new IOException("create dir failed: " + file);
+            }
+        } else {
+            File parent = file.getParentFile();
+            if (!parent.isDirectory() && !parent.mkdirs()) {
+                throw new IOException("create dir failed: " + parent);
+            }
+            mOut = new BufferedOutputStream(new FileOutputStream(file), mInflated.length);
+        }
+        if (mMethod == METHOD_DEFLATED) {
+            if (mInflater == null) {
+                mInflater = new Inflater(true);
+            } else {
+                mInflater.reset();
+            }
+        }
+        expect(STATE_DATA, 0);
+        if (mMethod == METHOD_STORED && mRemaining == 0) {
+            onData();
+        }
+    }
+
+    /**
+     * 从ZIP64扩展字段读取压缩后的大小，扩展字段依次记录原始大小和压缩后的大小，只包含头中为0xffffffff的项
+     */
+    private void readZip64Size(int offset) throws IOException {
+        boolean hasSize = (readInt(mHeader, 22) & 0xffffffffL) == ZIP64_MAGIC;
+        int end = mFields.length;
+        while (offset + 4 <= end) {
+            int id = readShort(mFields, offset);
+            int size = readShort(mFields, offset + 2);
+            if (id == 1) {
+                int position = offset + 4 + (hasSize ? 8 : 0);
+                if (position + 8 > offset + 4 + size || position + 8 > end) {
+                    break;
+                }
+                mRemaining = readLong(mFields, position);
+                mZip64 = true;
+                return;
+            }
+            offset += 4 + size;
+        }
+        throw new IOException("bad zip64 extra field");
+    }
+
+    private int writeStored(byte[] data, int offset, int count) throws IOException {
+        int n = (int) Math.min(count, mRemaining);
+        mOut.write(data, offset, n);
+        mCrc.update(data, offset, n);
+        mRemaining -= n;
+        if (mRemaining == 0) {
+            onData();
+        }
+        return n;
+    }
+
+    /**
+     * 解压数据，条目结束时返回实际属于该条目的字节数
+     */
+    private int inflate(byte[] data, int offset, int count) throws IOException {
+        mInflater.setInput(data, offset, count);
+        try {
+            int len;
+            while ((len = mInflater.inflate(mInflated)) > 0) {
+                if (mOut != null) {
+                    mOut.write(mInflated, 0, len);
+                }
+                mCrc.update(mInflated, 0, len);
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("bad zip data at " + mPosition + ": " + e.getMessage());
+        }
+        if (mInflater.needsDictionary()) {
+            throw new IOException("bad zip data at " + mPosition);
+        }
+        if (!mInflater.finished()) {
+            return count;
+        }
+        int n = count - mInflater.getRemaining();
+        onData();
+        return n;
+    }
+
+    /**
+     * 条目数据结束，有数据描述时继续读取，否则开始下一个条目
+     */
+    private void onData() throws IOException {
+        closeEntry();
+        if ((mFlags & FLAG_DESCRIPTOR) != 0) {
+            expect(STATE_DESCRIPTOR, 4);
+        } else {
+            checkCrc(mExpectedCrc);
+            expect(STATE_HEADER, 4);
+        }
+    }
+
+    private void checkCrc(long expected) throws IOException {
+        if (mCrc.getValue() != expected) {
+            throw new IOException("zip entry crc mismatch: " + mName);
+        }
+    }
+
+    /**
+     * 数据描述依次为可省略的签名、CRC和两个大小，ZIP64条目的大小为8字节
+     */
+    private void onDescriptor() throws IOException {
+        if (mTarget == 4) {
+            int size = mZip64 ? 20 : 12;
+            mTarget = readInt(mDescriptor, 0) == DESCRIPTOR_SIGNATURE ? size + 4 : size;
+            return;
+        }
+        checkCrc(readInt(mDescriptor, mTarget - (mZip64 ? 20 : 12)) & 0xffffffffL);
+        expect(STATE_HEADER, 4);
+    }
+
+    /**
+     * 关闭当前条目的输出
+     */
+    private void closeEntry() {
+        closeQuietly(mOut);
+        mOut = null;
+    }
+
+    /**
+     * 释放解压使用的本地内存
+     */
+    private void endInflater() {
+        if (mInflater != null) {
+            mInflater.end();
+            mInflater = null;
+        }
+    }
+
+    private long readState() {
+        if (!mStateFile.exists()) {
+            return 0;
+        }
+        InputStream in = null;
+        try {
+            in = new FileInputStream(mStateFile);
+            byte[] bytes = new byte[32];
+            int len = in.read(bytes);
+            return len > 0 ? Long.parseLong(new String(bytes, 0, len, "UTF-8").trim()) : 0;
+        } catch (IOException | NumberFormatException e) {
+            return 0;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                //忽略关闭异常
+            }
+        }
+    }
+
+    private static int readShort(byte[] b, int offset) {
+        return (b[offset] & 0xff) | (b[offset + 1] & 0xff) << 8;
+    }
+
+    private static int readInt(byte[] b, int offset) {
+        return readShort(b, offset) | readShort(b, offset + 2) << 16;
+    }
+
+    private static long readLong(byte[] b, int offset) {
+        return (readInt(b, offset) & 0xffffffffL) | (readInt(b, offset + 4) & 0xffffffffL) << 32;
+    }
+}
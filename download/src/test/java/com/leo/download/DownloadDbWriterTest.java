@@ -0,0 +1,151 @@
+package com.leo.download;
+
+import android.database.sqlite.SQLiteDatabase;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DownloadDbWriterTest {
+    /**
+     * 已提交的批次，每批为操作名列表
+     */
+    private final List<List<String>> mBatches = Collections.synchronizedList(new ArrayList<List<String>>());
+    /**
+     * 接下来提交失败的次数
+     */
+    private final AtomicInteger mFailures = new AtomicInteger();
+    private DownloadDbWriter mWriter;
+
+    @Before
+    public void setUp() {
+        //替换提交方式，只记录执行的操作，不访问数据库
+        mWriter = new DownloadDbWriter(null) {
+            @Override
+            boolean commit(List<Operation> batch) {
+                if (mFailures.getAndDecrement() > 0) {
+                    return false;
+                }
+                List<String> names = new ArrayList<>();
+                for (Operation operation : batch) {
+                    operation.execute(null);
+                    names.add(operation.toString());
+                }
+                mBatches.add(names);
+                return true;
+            }
+        };
+    }
+
+    private DownloadDbWriter.Operation op(final String name) {
+        return new DownloadDbWriter.Operation() {
+            @Override
+            public void execute(SQLiteDatabase db) {
+            }
+
+            @Override
+            public String toString() {
+                return name;
+            }
+        };
+    }
+
+    @Test(timeout = 5000)
+    public void coalesceOperationsWithSameKey() {
+        //持有锁时写线程不能取出操作，保证所有操作在同一批中
+        synchronized (mWriter) {
+            mWriter.post("task:1", op("update1"));
+            mWriter.post("task:2", op("update2"));
+            mWriter.post("task:1", op("update1-again"));
+            mWriter.post(null, op("delete"));
+            mWriter.post(null, op("insert"));
+        }
+        assertTrue(mWriter.flush());
+        assertEquals(Collections.singletonList(Arrays.asList("update2", "update1-again", "delete", "insert")),
+                mBatches);
+    }
+
+    @Test(timeout = 5000)
+    public void flushWaitsForEachBatch() {
+        mWriter.post("task:1", op("first"));
+        mWriter.flush();
+        assertEquals(1, mBatches.size());
+
+        mWriter.post("task:1", op("second"));
+        mWriter.flush();
+        assertEquals(Arrays.asList(Collections.singletonList("first"), Collections.singletonList("second")),
+                mBatches);
+    }
+
+    @Test(timeout = 5000)
+    public void flushWithoutPendingReturns() {
+        mWriter.flush();
+        assertEquals(0, mBatches.size());
+    }
+
+    @Test(timeout = 5000)
+    public void flushFromWriterThreadDoesNotWait() {
+        mWriter.post(null, new DownloadDbWriter.Operation() {
+            @Override
+            public void execute(SQLiteDatabase db) {
+                //写操作中查询会先flush，不能等待自己
+                mWriter.flush();
+            }
+        });
+        mWriter.flush();
+        assertEquals(1, mBatches.size());
+    }
+
+    @Test(timeout = 5000)
+    public void retryFailedBatch() {
+        mFailures.set(1);
+        mWriter.post("task:1", op("update1"));
+        mWriter.post(null, op("delete"));
+        assertTrue(mWriter.flush());
+        assertEquals(Collections.singletonList(Arrays.asList("update1", "delete")), mBatches);
+    }
+
+    @Test(timeout = 5000)
+    public void newerOperationReplacesFailedOne() {
+        mFailures.set(1);
+        mWriter.post("task:1", op("update1"));
+        //等第一次提交失败后再提交同一任务的更新
+        while (mFailures.get() > 0) {
+            Thread.yield();
+        }
+        mWriter.post("task:1", op("update1-again"));
+        assertTrue(mWriter.flush());
+        assertEquals(Collections.singletonList(Collections.singletonList("update1-again")), mBatches);
+    }
+
+    @Test(timeout = 5000)
+    public void dropAfterRepeatedFailures() {
+        final AtomicInteger dropped = new AtomicInteger();
+        mWriter.setDropListener(new DownloadDbWriter.DropListener() {
+            @Override
+            public void onDropped() {
+                dropped.incrementAndGet();
+            }
+        });
+        mFailures.set(Integer.MAX_VALUE);
+        mWriter.post("task:1", op("update1"));
+        assertFalse(mWriter.flush());
+        assertEquals(1, dropped.get());
+        assertEquals(0, mBatches.size());
+
+        //之后的写操作正常提交，但已丢弃的写操作仍会被报告
+        mFailures.set(0);
+        mWriter.post("task:1", op("update1-again"));
+        assertFalse(mWriter.flush());
+        assertEquals(Collections.singletonList(Collections.singletonList("update1-again")), mBatches);
+    }
+}
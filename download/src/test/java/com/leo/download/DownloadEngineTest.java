@@ -0,0 +1,151 @@
+package com.leo.download;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 预分配空间后文件长度即为总大小，没有在下载的任务暂停和续传时不能以文件长度作为进度
+ */
+public class DownloadEngineTest {
+    /**
+     * 无法连接的地址，续传的请求会立即失败
+     */
+    private static final String URL = "http://127.0.0.1:1/file.bin";
+    private static final long TOTAL = 8 * 1024 * 1024;
+    private static final long CURR = 1024 * 1024;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private File mFile;
+    private DownloadMemoryStore mStore;
+    private DownloadEngine mEngine;
+
+    @Before
+    public void setUp() throws IOException {
+        mFile = mFolder.newFile("file.bin");
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        file.setLength(TOTAL);
+        file.close();
+        mStore = new DownloadMemoryStore();
+        DownloadConfig config = new DownloadConfig.Builder()
+                .callbackExecutor(DownloadExecutors.immediate())
+                .maxRetries(0)
+                .build();
+        mEngine = new DownloadEngine(mStore, new DownloadPlatform(), config);
+    }
+
+    private DownloadInfo insert(int status) {
+        DownloadInfo info = new DownloadInfo.Builder().url(URL).path(mFile.getPath()).build();
+        info.setTotalSize(TOTAL);
+        info.setCurrSize(CURR);
+        info.setStatus(status);
+        mStore.insert(info);
+        return info;
+    }
+
+    private long pause() {
+        final long[] paused = {-1};
+        mEngine.pause(URL, new DownloadListenerAdapter() {
+            @Override
+            public void onPause(int id, long currSize) {
+                paused[0] = currSize;
+            }
+        });
+        return paused[0];
+    }
+
+    @Test
+    public void pauseIdleTaskUsesSavedProgress() {
+        //进程被结束后留下的开始状态
+        insert(DownloadConst.Status.START);
+        assertEquals(TOTAL, mFile.length());
+
+        assertEquals(CURR, pause());
+        DownloadInfo saved = mEngine.query(URL);
+        assertEquals(CURR, saved.getCurrSize());
+        assertEquals(DownloadConst.Status.PAUSE, saved.getStatus());
+    }
+
+    @Test
+    public void pauseIdleSegmentedTaskUsesSavedSegments() {
+        DownloadInfo info = insert(DownloadConst.Status.PENDING);
+        List<DownloadSegment> segments = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            DownloadSegment segment = new DownloadSegment(i, i * TOTAL / 4, (i + 1) * TOTAL / 4 - 1);
+            segment.setCheckpoint(segment.getStart() + CURR / 4);
+            segments.add(segment);
+        }
+        info.setSegments(segments);
+        mStore.replaceSegments(info);
+        //分段需要从存储中读取
+        info.setSegments(null);
+
+        assertEquals(CURR, pause());
+        assertEquals(CURR, mEngine.query(URL).getCurrSize());
+    }
+
+    @Test
+    public void enqueueAfterPauseDoesNotComplete() throws InterruptedException {
+        insert(DownloadConst.Status.START);
+        pause();
+
+        final CountDownLatch latch = new CountDownLatch(1);
+        final boolean[] completed = {false};
+        mEngine.enquene(URL, mFile.getPath(), new DownloadListenerAdapter() {
+            @Override
+            public void onComplete(int id, String dir, String name) {
+                completed[0] = true;
+                latch.countDown();
+            }
+
+            @Override
+            public void onError(int id, DownloadError error) {
+                latch.countDown();
+            }
+        });
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        assertFalse(completed[0]);
+        assertEquals(CURR, mEngine.query(URL).getCurrSize());
+    }
+
+    @Test
+    public void infoCallbackExecutorOverridesConfig() throws InterruptedException {
+        insert(DownloadConst.Status.PAUSE);
+        final AtomicInteger executed = new AtomicInteger();
+        Executor executor = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                executed.incrementAndGet();
+                command.run();
+            }
+        };
+        final CountDownLatch latch = new CountDownLatch(1);
+        //重新开始已有记录时使用本次指定的回调执行器
+        mEngine.enquene(new DownloadInfo.Builder().url(URL).path(mFile.getPath()).callbackExecutor(executor).build(),
+                new DownloadListenerAdapter() {
+                    @Override
+                    public void onError(int id, DownloadError error) {
+                        latch.countDown();
+                    }
+                });
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        assertTrue(executed.get() > 0);
+    }
+}
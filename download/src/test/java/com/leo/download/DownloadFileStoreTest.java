@@ -0,0 +1,50 @@
+package com.leo.download;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class DownloadFileStoreTest {
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private static DownloadInfo info(String url) {
+        return new DownloadInfo.Builder().url(url).path("/tmp/" + url).build();
+    }
+
+    @Test
+    public void flushSavesCoalescedChanges() {
+        File file = new File(mFolder.getRoot(), "downloads.dat");
+        DownloadFileStore store = new DownloadFileStore(file);
+        assertTrue(store.flush());
+
+        DownloadInfo info = info("a");
+        store.insert(info);
+        for (int i = 1; i <= 100; i++) {
+            info.setCurrSize(i * 1024);
+            store.update(info);
+        }
+        List<DownloadSegment> segments = new ArrayList<>();
+        segments.add(new DownloadSegment(0, 0, 1023));
+        segments.get(0).setCheckpoint(512);
+        info.setSegments(segments);
+        store.replaceSegments(info);
+        store.insert(info("b"));
+        store.delete("b");
+        assertTrue(store.flush());
+
+        DownloadFileStore loaded = new DownloadFileStore(file);
+        DownloadInfo saved = loaded.queryFirst(DownloadStore.COLUMN_URL, "a");
+        assertEquals(100 * 1024, saved.getCurrSize());
+        assertEquals(512, loaded.querySegments(saved.getId()).get(0).getCheckpoint());
+        assertNull(loaded.queryFirst(DownloadStore.COLUMN_URL, "b"));
+    }
+}
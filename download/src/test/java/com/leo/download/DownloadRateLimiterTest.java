@@ -0,0 +1,108 @@
+package com.leo.download;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DownloadRateLimiterTest {
+    /**
+     * 当前时间，纳秒
+     */
+    private long mNow;
+    /**
+     * 累计等待的时长，纳秒
+     */
+    private long mSlept;
+    /**
+     * 只在等待时前进的时钟，结果不受运行速度影响
+     */
+    private DownloadRateLimiter.Ticker mTicker;
+
+    @Before
+    public void setUp() {
+        mNow = TimeUnit.SECONDS.toNanos(1000);
+        mTicker = new DownloadRateLimiter.Ticker() {
+            @Override
+            public long nanoTime() {
+                return mNow;
+            }
+
+            @Override
+            public void sleep(long nanos) throws InterruptedException {
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+                mNow += nanos;
+                mSlept += nanos;
+            }
+        };
+    }
+
+    private static long millis(long nanos) {
+        return TimeUnit.MILLISECONDS.toNanos(nanos);
+    }
+
+    @Test
+    public void unlimitedDoesNotWait() throws InterruptedIOException {
+        DownloadRateLimiter limiter = new DownloadRateLimiter(0, mTicker);
+        assertFalse(limiter.isLimited());
+        limiter.acquire(100 * 1024 * 1024);
+        assertEquals(0, mSlept);
+    }
+
+    @Test
+    public void limitAverageRate() throws InterruptedIOException {
+        DownloadRateLimiter limiter = new DownloadRateLimiter(1000 * 1000, mTicker);
+        assertTrue(limiter.isLimited());
+        limiter.acquire(64 * 1000);
+        assertEquals(millis(64), mSlept);
+        for (int i = 1; i < 8; i++) {
+            limiter.acquire(64 * 1000);
+        }
+        //512KB按1MB/s需要512ms，没有空闲就没有突发
+        assertEquals(millis(512), mSlept);
+    }
+
+    @Test
+    public void allowBurstAfterIdle() throws InterruptedIOException {
+        DownloadRateLimiter limiter = new DownloadRateLimiter(1000 * 1000, mTicker);
+        mNow += millis(150);
+        //桶中最多有100ms的令牌
+        limiter.acquire(100 * 1000);
+        assertEquals(0, mSlept);
+        limiter.acquire(64 * 1000);
+        assertEquals(millis(64), mSlept);
+    }
+
+    @Test
+    public void changeRateWhileDownloading() throws InterruptedIOException {
+        DownloadRateLimiter limiter = new DownloadRateLimiter(1000, mTicker);
+        limiter.setBytesPerSecond(0);
+        limiter.acquire(1000 * 1000);
+        assertEquals(0, mSlept);
+
+        limiter.setBytesPerSecond(1000 * 1000);
+        limiter.acquire(10 * 1000);
+        assertEquals(millis(10), mSlept);
+    }
+
+    @Test
+    public void interruptWhileWaiting() {
+        DownloadRateLimiter limiter = new DownloadRateLimiter(1000, mTicker);
+        Thread.currentThread().interrupt();
+        try {
+            limiter.acquire(1000 * 1000);
+            fail("acquire was not interrupted");
+        } catch (InterruptedIOException e) {
+            //中断状态应保留给调用方
+            assertTrue(Thread.interrupted());
+        }
+    }
+}
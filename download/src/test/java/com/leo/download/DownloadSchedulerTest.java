@@ -0,0 +1,111 @@
+package com.leo.download;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DownloadSchedulerTest {
+    private List<String> mStarted;
+    private DownloadScheduler mScheduler;
+
+    @Before
+    public void setUp() {
+        mStarted = new ArrayList<>();
+        mScheduler = new DownloadScheduler(1, new DownloadScheduler.Starter() {
+            @Override
+            public void start(DownloadInfo info, DownloadListener listener) {
+                mStarted.add(info.getUrl());
+            }
+        });
+    }
+
+    private static DownloadInfo info(String url, int priority) {
+        return new DownloadInfo.Builder().url(url).path("/tmp/" + url).priority(priority).build();
+    }
+
+    private boolean schedule(String url, int priority) {
+        return mScheduler.schedule(info(url, priority), null);
+    }
+
+    @Test
+    public void limitConcurrentDownloads() {
+        mScheduler.setMaxConcurrent(2);
+        assertTrue(schedule("a", DownloadConst.Priority.NORMAL));
+        assertTrue(schedule("b", DownloadConst.Priority.NORMAL));
+        assertFalse(schedule("c", DownloadConst.Priority.NORMAL));
+        assertEquals(Arrays.asList("a", "b"), mStarted);
+        assertTrue(mScheduler.isPending("c"));
+
+        mScheduler.finish("a");
+        assertEquals(Arrays.asList("a", "b", "c"), mStarted);
+        assertFalse(mScheduler.isPending("c"));
+    }
+
+    @Test
+    public void promoteByPriorityThenOrder() {
+        schedule("running", DownloadConst.Priority.NORMAL);
+        schedule("low", DownloadConst.Priority.LOW);
+        schedule("normal1", DownloadConst.Priority.NORMAL);
+        schedule("high", DownloadConst.Priority.HIGH);
+        schedule("normal2", DownloadConst.Priority.NORMAL);
+
+        for (String url : new String[]{"running", "high", "normal1", "normal2"}) {
+            mScheduler.finish(url);
+        }
+        assertEquals(Arrays.asList("running", "high", "normal1", "normal2", "low"), mStarted);
+    }
+
+    @Test
+    public void removePendingTask() {
+        schedule("a", DownloadConst.Priority.NORMAL);
+        schedule("b", DownloadConst.Priority.NORMAL);
+        schedule("c", DownloadConst.Priority.NORMAL);
+        assertTrue(mScheduler.remove("b"));
+        assertFalse(mScheduler.remove("b"));
+
+        mScheduler.finish("a");
+        assertEquals(Arrays.asList("a", "c"), mStarted);
+    }
+
+    @Test
+    public void raiseLimitStartsPendingTasks() {
+        schedule("a", DownloadConst.Priority.NORMAL);
+        schedule("b", DownloadConst.Priority.NORMAL);
+        schedule("c", DownloadConst.Priority.HIGH);
+        mScheduler.setMaxConcurrent(3);
+        assertEquals(Arrays.asList("a", "c", "b"), mStarted);
+    }
+
+    @Test
+    public void sameUrlWaitsForRunningTask() {
+        mScheduler.setMaxConcurrent(2);
+        schedule("a", DownloadConst.Priority.NORMAL);
+        assertFalse(schedule("a", DownloadConst.Priority.NORMAL));
+        assertEquals(Collections.singletonList("a"), mStarted);
+
+        mScheduler.finish("a");
+        assertEquals(Arrays.asList("a", "a"), mStarted);
+    }
+
+    @Test
+    public void scheduleAllStartsHighestPriorities() {
+        mScheduler.setMaxConcurrent(2);
+        List<DownloadInfo> infos = Arrays.asList(info("low", DownloadConst.Priority.LOW),
+                info("normal", DownloadConst.Priority.NORMAL), info("high", DownloadConst.Priority.HIGH));
+        List<DownloadListener> listeners = Arrays.asList(null, null, (DownloadListener) null);
+
+        List<DownloadInfo> pending = mScheduler.scheduleAll(infos, listeners);
+        assertEquals(Arrays.asList("high", "normal"), mStarted);
+        assertEquals(1, pending.size());
+        assertEquals("low", pending.get(0).getUrl());
+        assertTrue(mScheduler.isPending("low"));
+    }
+}
@@ -0,0 +1,181 @@
+package com.leo.download;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import okio.Buffer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DownloadWriterTest {
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private File mFile;
+
+    @Before
+    public void setUp() throws IOException {
+        mFile = mFolder.newFile("file.bin");
+    }
+
+    private static byte[] random(int size) {
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        return data;
+    }
+
+    /**
+     * 按块写入数据，模拟从响应中读取
+     */
+    private static void write(DownloadWriter writer, byte[] data, int chunk) throws IOException {
+        Buffer source = new Buffer().write(data);
+        while (writer.transferFrom(source, chunk) != -1) {
+        }
+    }
+
+    private byte[] read() throws IOException {
+        RandomAccessFile file = new RandomAccessFile(mFile, "r");
+        try {
+            byte[] data = new byte[(int) file.length()];
+            file.readFully(data);
+            return data;
+        } finally {
+            file.close();
+        }
+    }
+
+    @Test
+    public void writeThroughBuffer() throws IOException {
+        byte[] data = random(100000);
+        DownloadWriter writer = new DownloadWriter(mFile.getPath(), 0, 8192, 0);
+        write(writer, data, 1000);
+        assertEquals(data.length, writer.getPosition());
+        assertTrue(writer.getFlushedPosition() < data.length);
+        writer.close();
+        assertArrayEquals(data, read());
+    }
+
+    @Test
+    public void syncCallbackReportsFlushedPosition() throws IOException {
+        final List<Long> positions = new ArrayList<>();
+        DownloadWriter writer = new DownloadWriter(mFile.getPath(), 0, 100, 1000);
+        writer.setSyncListener(new DownloadWriter.SyncListener() {
+            @Override
+            public void onSync(long position) {
+                positions.add(position);
+            }
+        });
+        write(writer, random(2500), 100);
+        assertEquals(Arrays.asList(1000L, 2000L), positions);
+        writer.close();
+        assertEquals(Arrays.asList(1000L, 2000L, 2500L), positions);
+    }
+
+    @Test
+    public void resumeAndTruncate() throws IOException {
+        byte[] old = random(1000);
+        DownloadWriter writer = new DownloadWriter(mFile.getPath(), 0, 8192, 0);
+        write(writer, old, 1000);
+        writer.close();
+
+        //从200继续写入，文件中超出的旧数据被截断
+        byte[] data = random(50);
+        writer = new DownloadWriter(mFile.getPath(), 200, 8192, 0);
+        writer.truncate();
+        assertEquals(200, mFile.length());
+        write(writer, data, 10);
+        writer.close();
+        byte[] expected = Arrays.copyOf(old, 250);
+        System.arraycopy(data, 0, expected, 200, data.length);
+        assertArrayEquals(expected, read());
+    }
+
+    @Test
+    public void writeAcrossMapWindows() throws IOException {
+        int length = (int) DownloadWriter.MAP_WINDOW_SIZE * 2 + 12345;
+        int start = 1000;
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        file.setLength(length);
+        file.close();
+        byte[] data = random(length - start);
+        final List<Long> positions = new ArrayList<>();
+        DownloadWriter writer = new DownloadWriter(mFile.getPath(), start, 64 * 1024, DownloadWriter.MAP_WINDOW_SIZE);
+        writer.setSyncListener(new DownloadWriter.SyncListener() {
+            @Override
+            public void onSync(long position) {
+                positions.add(position);
+            }
+        });
+        writer.map(length);
+        write(writer, data, 64 * 1024);
+        writer.close();
+        byte[] actual = read();
+        assertEquals(length, actual.length);
+        assertArrayEquals(data, Arrays.copyOfRange(actual, start, length));
+        assertEquals(Long.valueOf(length), positions.get(positions.size() - 1));
+    }
+
+    @Test
+    public void rejectWriteBeyondMapLimit() throws IOException {
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        file.setLength(100);
+        file.close();
+        DownloadWriter writer = new DownloadWriter(mFile.getPath(), 0, 8192, 0);
+        writer.map(100);
+        write(writer, random(150), 150);
+        try {
+            writer.flush();
+            fail("wrote beyond map limit");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("limit"));
+        }
+    }
+
+    @Test
+    public void processorFailureIsProcessException() throws IOException {
+        DownloadWriter writer = new DownloadWriter(mFile.getPath(), 0, 8192, 0);
+        writer.setProcessor(new DownloadProcessor() {
+            @Override
+            public long start(long position) {
+                return position;
+            }
+
+            @Override
+            public void process(byte[] data, int offset, int count) throws IOException {
+                throw new IOException("bad data");
+            }
+
+            @Override
+            public void finish() {
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+        byte[] data = random(100);
+        write(writer, data, 100);
+        try {
+            writer.flush();
+            fail("processor failure was ignored");
+        } catch (DownloadWriter.ProcessException e) {
+            assertEquals("bad data", e.getMessage());
+        }
+        //处理失败后关闭时仍写入数据
+        writer.close();
+        assertArrayEquals(data, read());
+    }
+}
@@ -0,0 +1,313 @@
+package com.leo.download;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DownloadZipExtractorTest {
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private File mDir;
+    private byte[] mText;
+    private byte[] mBinary;
+
+    @Before
+    public void setUp() throws IOException {
+        mDir = new File(mFolder.getRoot(), "out");
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            text.append("line ").append(i).append('\n');
+        }
+        mText = text.toString().getBytes("UTF-8");
+        mBinary = new byte[50000];
+        new Random(1).nextBytes(mBinary);
+    }
+
+    @Test
+    public void extractStoredEntries() throws IOException {
+        ZipBuilder zip = new ZipBuilder()
+                .entry("a.txt", mText, false, false, false)
+                .entry("dir/", new byte[0], false, false, false)
+                .entry("dir/b.bin", mBinary, false, false, false);
+        extract(zip.build(), 7);
+        assertExtracted("a.txt", mText);
+        assertTrue(new File(mDir, "dir").isDirectory());
+        assertExtracted("dir/b.bin", mBinary);
+    }
+
+    @Test
+    public void extractDeflatedEntries() throws IOException {
+        ZipBuilder zip = new ZipBuilder()
+                .entry("a.txt", mText, true, false, false)
+                .entry("b.bin", mBinary, true, false, false);
+        extract(zip.build(), 1000);
+        assertExtracted("a.txt", mText);
+        assertExtracted("b.bin", mBinary);
+    }
+
+    @Test
+    public void extractEntriesWithDataDescriptor() throws IOException {
+        //ZipOutputStream对压缩的条目总是在数据后写入带签名的数据描述
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ZipOutputStream out = new ZipOutputStream(bytes);
+        out.putNextEntry(new ZipEntry("a.txt"));
+        out.write(mText);
+        out.closeEntry();
+        out.putNextEntry(new ZipEntry("b.bin"));
+        out.write(mBinary);
+        out.closeEntry();
+        out.close();
+        extract(bytes.toByteArray(), 333);
+        assertExtracted("a.txt", mText);
+        assertExtracted("b.bin", mBinary);
+
+        //省略签名的数据描述
+        mDir = new File(mFolder.getRoot(), "out2");
+        extract(new ZipBuilder().entry("c.txt", mText, true, true, false).build(), 64);
+        assertExtracted("c.txt", mText);
+    }
+
+    @Test
+    public void extractZip64Entries() throws IOException {
+        ZipBuilder zip = new ZipBuilder()
+                .entry("a.txt", mText, true, false, true)
+                .entry("b.bin", mBinary, false, false, true)
+                .entry("c.txt", mText, true, true, true);
+        extract(zip.build(), 4096);
+        assertExtracted("a.txt", mText);
+        assertExtracted("b.bin", mBinary);
+        assertExtracted("c.txt", mText);
+    }
+
+    @Test
+    public void rejectEntryOutsideDir() throws IOException {
+        byte[] zip = new ZipBuilder().entry("../evil.txt", mText, false, false, false).build();
+        DownloadZipExtractor extractor = new DownloadZipExtractor(mDir);
+        extractor.start(0);
+        try {
+            extractor.process(zip, 0, zip.length);
+            fail("zip slip entry was extracted");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("outside"));
+        } finally {
+            extractor.close();
+        }
+        assertFalse(new File(mFolder.getRoot(), "evil.txt").exists());
+    }
+
+    @Test
+    public void rejectCorruptEntry() throws IOException {
+        byte[] zip = new ZipBuilder().entry("b.bin", mBinary, false, false, false).build();
+        zip[100] ^= 1;
+        try {
+            extract(zip, 1000);
+            fail("corrupt entry was extracted");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("crc"));
+        }
+    }
+
+    @Test
+    public void rejectIncompleteZip() throws IOException {
+        byte[] zip = new ZipBuilder().entry("a.txt", mText, true, false, false).build();
+        DownloadZipExtractor extractor = new DownloadZipExtractor(mDir);
+        extractor.start(0);
+        extractor.process(zip, 0, zip.length / 2);
+        try {
+            extractor.finish();
+            fail("incomplete zip finished");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("incomplete"));
+        }
+    }
+
+    @Test
+    public void resumeWithNewExtractor() throws IOException {
+        byte[] zip = new ZipBuilder()
+                .entry("a.txt", mText, true, false, false)
+                .entry("b.bin", mBinary, false, false, false)
+                .entry("c.txt", mText, true, true, false)
+                .build();
+        int paused = zip.length * 2 / 3;
+        DownloadZipExtractor first = new DownloadZipExtractor(mDir);
+        assertEquals(0, first.start(0));
+        process(first, zip, 0, paused, 100);
+        first.close();
+
+        //新的对象读取暂停时保存的位置，从最后一个完整条目之后重新解压
+        DownloadZipExtractor second = new DownloadZipExtractor(mDir);
+        long boundary = second.start(paused);
+        assertTrue(boundary > 0 && boundary <= paused);
+        process(second, zip, (int) boundary, zip.length, 100);
+        second.finish();
+        assertExtracted("a.txt", mText);
+        assertExtracted("b.bin", mBinary);
+        assertExtracted("c.txt", mText);
+        assertFalse(new File(mFolder.getRoot(), "out.extract").exists());
+    }
+
+    @Test
+    public void resumeWithSameExtractor() throws IOException {
+        byte[] zip = new ZipBuilder()
+                .entry("a.txt", mText, true, false, false)
+                .entry("b.bin", mBinary, true, false, false)
+                .build();
+        DownloadZipExtractor extractor = new DownloadZipExtractor(mDir);
+        extractor.start(0);
+        process(extractor, zip, 0, zip.length - 100, 512);
+        extractor.close();
+        long boundary = extractor.start(zip.length - 100);
+        process(extractor, zip, (int) boundary, zip.length, 512);
+        extractor.finish();
+        assertExtracted("a.txt", mText);
+        assertExtracted("b.bin", mBinary);
+    }
+
+    @Test
+    public void restartWhenSavedBoundaryIsAhead() throws IOException {
+        byte[] zip = new ZipBuilder().entry("a.txt", mText, false, false, false).build();
+        DownloadZipExtractor first = new DownloadZipExtractor(mDir);
+        first.start(0);
+        process(first, zip, 0, zip.length, 50);
+        first.close();
+        //文件被重新下载到更早的位置，保存的位置已无效
+        DownloadZipExtractor second = new DownloadZipExtractor(mDir);
+        assertEquals(0, second.start(10));
+        second.close();
+    }
+
+    private void extract(byte[] zip, int chunk) throws IOException {
+        DownloadZipExtractor extractor = new DownloadZipExtractor(mDir);
+        extractor.start(0);
+        try {
+            process(extractor, zip, 0, zip.length, chunk);
+            extractor.finish();
+        } finally {
+            extractor.close();
+        }
+    }
+
+    private static void process(DownloadZipExtractor extractor, byte[] zip, int from, int to, int chunk)
+            throws IOException {
+        for (int i = from; i < to; i += chunk) {
+            extractor.process(zip, i, Math.min(chunk, to - i));
+        }
+    }
+
+    private void assertExtracted(String name, byte[] expected) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(new File(mDir, name), "r");
+        try {
+            byte[] actual = new byte[(int) file.length()];
+            file.readFully(actual);
+            assertArrayEquals(name, expected, actual);
+        } finally {
+            file.close();
+        }
+    }
+
+    /**
+     * 按本地文件头格式拼接ZIP文件，可以控制压缩方式、数据描述和ZIP64扩展字段
+     */
+    private static class ZipBuilder {
+        private ByteArrayOutputStream mOut = new ByteArrayOutputStream();
+
+        ZipBuilder entry(String name, byte[] data, boolean deflate, boolean descriptor, boolean zip64)
+                throws IOException {
+            byte[] compressed = deflate ? deflate(data) : data;
+            CRC32 crc = new CRC32();
+            crc.update(data);
+            byte[] nameBytes = name.getBytes("UTF-8");
+            int flags = descriptor ? 8 : 0;
+            boolean sizesInHeader = !descriptor;
+            writeInt(0x04034b50);
+            writeShort(zip64 ? 45 : 20);
+            writeShort(flags);
+            writeShort(deflate ? 8 : 0);
+            writeShort(0);
+            writeShort(0);
+            writeInt(sizesInHeader ? (int) crc.getValue() : 0);
+            if (zip64) {
+                writeInt(0xffffffff);
+                writeInt(0xffffffff);
+            } else {
+                writeInt(sizesInHeader ? compressed.length : 0);
+                writeInt(sizesInHeader ? data.length : 0);
+            }
+            writeShort(nameBytes.length);
+            writeShort(zip64 ? 20 : 0);
+            mOut.write(nameBytes);
+            if (zip64) {
+                writeShort(1);
+                writeShort(16);
+                writeLong(sizesInHeader ? data.length : 0);
+                writeLong(sizesInHeader ? compressed.length : 0);
+            }
+            mOut.write(compressed);
+            if (descriptor) {
+                writeInt((int) crc.getValue());
+                if (zip64) {
+                    writeLong(compressed.length);
+                    writeLong(data.length);
+                } else {
+                    writeInt(compressed.length);
+                    writeInt(data.length);
+                }
+            }
+            return this;
+        }
+
+        byte[] build() {
+            //只写入中央目录结束记录，解压时不读取中央目录
+            writeInt(0x06054b50);
+            mOut.write(new byte[18], 0, 18);
+            return mOut.toByteArray();
+        }
+
+        private static byte[] deflate(byte[] data) {
+            Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+            deflater.setInput(data);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            while (!deflater.finished()) {
+                int len = deflater.deflate(buffer);
+                out.write(buffer, 0, len);
+            }
+            deflater.end();
+            return out.toByteArray();
+        }
+
+        private void writeShort(int value) {
+            mOut.write(value & 0xff);
+            mOut.write((value >>> 8) & 0xff);
+        }
+
+        private void writeInt(int value) {
+            writeShort(value & 0xffff);
+            writeShort((value >>> 16) & 0xffff);
+        }
+
+        private void writeLong(long value) {
+            writeInt((int) value);
+            writeInt((int) (value >>> 32));
+        }
+    }
+}
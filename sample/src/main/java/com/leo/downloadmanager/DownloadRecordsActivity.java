@@ -8,10 +8,11 @@ import android.view.View;
 import android.view.ViewGroup;
 import android.widget.TextView;
 
+import com.leo.download.DownloadDbHelper;
 import com.leo.download.DownloadInfo;
 import com.leo.download.DownloadManager;
-
-import java.util.List;
+import com.leo.download.DownloadQuery;
+import com.leo.download.DownloadRecordList;
 
 import butterknife.BindView;
 import butterknife.ButterKnife;
@@ -21,18 +22,30 @@ public class DownloadRecordsActivity extends AppCompatActivity {
     @BindView(R.id.recycler)
     RecyclerView mRecycler;
 
-    private List<DownloadInfo> mRecords;
+    private DownloadRecordList mRecords;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_download_records);
         ButterKnife.bind(this);
-        mRecords = DownloadManager.getInstance(this).queryAll();
+        //只查询列表显示的字段，滑动到某一项时才读取
+        mRecords = DownloadManager.getInstance(this).queryLazy(new DownloadQuery.Builder()
+                .columns(DownloadDbHelper.COLUMN_URL, DownloadDbHelper.COLUMN_DIR, DownloadDbHelper.COLUMN_NAME,
+                        DownloadDbHelper.COLUMN_TOTAL, DownloadDbHelper.COLUMN_STATUS,
+                        DownloadDbHelper.COLUMN_START, DownloadDbHelper.COLUMN_MIMETYPE)
+                .descending(true)
+                .build());
         mRecycler.setLayoutManager(new LinearLayoutManager(this));
         mRecycler.setAdapter(new RecordsAdapter());
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        mRecords.close();
+    }
+
     public class RecordsAdapter extends RecyclerView.Adapter<RecordsAdapter.ViewHolder> {
 
 